@@ -17,7 +17,10 @@ CREATE TABLE `convert_info`
     `convert_status` varchar(15) CHARACTER SET utf8 COLLATE utf8_general_ci  NOT NULL COMMENT '任务状态（实际只储存已完成或出错任务）',
     `retry`          int(11)                                                 NOT NULL COMMENT '任务重试次数',
     `exceptions`     text CHARACTER SET utf8 COLLATE utf8_general_ci         NULL COMMENT '任务产生的异常',
-    PRIMARY KEY (`id`) USING BTREE
+    PRIMARY KEY (`id`) USING BTREE,
+    INDEX `idx_target_path` (`target_path`) USING BTREE,
+    INDEX `idx_source_path` (`source_path`) USING BTREE,
+    INDEX `idx_status_id` (`convert_status`, `id`) USING BTREE
 ) ENGINE = InnoDB
   AUTO_INCREMENT = 1
   CHARACTER SET = utf8
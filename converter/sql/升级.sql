@@ -0,0 +1,12 @@
+-- ----------------------------
+-- 已有数据库升级: 为预览验证和历史记录查询添加索引
+-- ----------------------------
+ALTER TABLE `convert_info`
+    ADD INDEX `idx_target_path` (`target_path`) USING BTREE,
+    ADD INDEX `idx_source_path` (`source_path`) USING BTREE;
+
+-- ----------------------------
+-- 按状态过滤的历史记录分页
+-- ----------------------------
+ALTER TABLE `convert_info`
+    ADD INDEX `idx_status_id` (`convert_status`, `id`) USING BTREE;
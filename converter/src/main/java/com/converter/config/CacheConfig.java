@@ -0,0 +1,48 @@
+package com.converter.config;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 转换缓存配置
+ * 内容相同(源文件字节和转换参数都相同)的文档只转换一次, 之后直接复用缓存中的PDF
+ *
+ * @author Evan
+ */
+@Slf4j
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "customize.cache")
+public class CacheConfig {
+    private static CacheConfig cacheConfig;
+    /**
+     * 是否启用转换缓存
+     */
+    private boolean enabled = false;
+    /**
+     * 缓存目录
+     */
+    private String dir = "cache";
+    /**
+     * 缓存目录最大占用空间(MB), 超出后淘汰最久未使用的PDF
+     */
+    private Integer maxSizeMb = 1024;
+
+    /**
+     * 允许获取转换缓存配置
+     */
+    public static CacheConfig instance() {
+        return cacheConfig;
+    }
+
+    @Autowired()
+    public void init(final @Qualifier("cacheConfig") CacheConfig cacheConfig) {
+        log.debug("开始初始化CacheConfig");
+        CacheConfig.cacheConfig = cacheConfig;
+        log.debug("成功初始化CacheConfig");
+    }
+}
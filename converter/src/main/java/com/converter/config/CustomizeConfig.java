@@ -1,5 +1,6 @@
 package com.converter.config;
 
+import com.converter.core.SchedulePolicy;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -42,6 +43,66 @@ public class CustomizeConfig {
      * 文件上传目录
      */
     private String uploadPath = "upload";
+    /**
+     * 流式上传超过该时间(小时)未活动则清理
+     */
+    private Integer uploadExpireHours = 24;
+    /**
+     * 同步转换(/convert)接受的最大文档大小(MB)
+     */
+    private Integer syncMaxSizeMb = 50;
+    /**
+     * 启动时每种文档类别预热转换的轮数, 0代表不预热
+     */
+    private Integer warmupRounds = 3;
+    /**
+     * Word文档分段并行转换的最小页数, 0代表不分段
+     */
+    private Integer wordSplitPages = 0;
+    /**
+     * Word文档分段并行转换的最小文件大小(MB)
+     */
+    private Integer wordSplitMinSizeMb = 5;
+    /**
+     * Word文档分段并行转换的并行数, 0代表使用CPU核数
+     */
+    private Integer wordSplitThreads = 0;
+    /**
+     * Cell文档按工作表分段并行转换的最小可见工作表数, 0代表不分段
+     */
+    private Integer cellSplitSheets = 0;
+    /**
+     * Cell文档按工作表分段并行转换的最小文件大小(MB)
+     */
+    private Integer cellSplitMinSizeMb = 5;
+    /**
+     * Cell文档按工作表分段并行转换的并行数, 0代表使用CPU核数
+     */
+    private Integer cellSplitThreads = 0;
+    /**
+     * 表格流式转换的最小文件大小(MB), 0代表不使用流式转换
+     */
+    private Integer cellStreamMinSizeMb = 0;
+    /**
+     * 表格流式转换每段PDF包含的行数
+     */
+    private Integer cellStreamChunkRows = 20000;
+    /**
+     * 表格流式转换CSV/TSV的编码, 为空时自动检测(BOM、UTF-8, 否则GBK)
+     */
+    private String cellStreamCharset = "";
+    /**
+     * 是否启用内存准入控制
+     */
+    private boolean memoryAdmission = true;
+    /**
+     * GC后老年代存活内存超过最大值的该比例时暂停启动新任务
+     */
+    private Double memoryThreshold = 0.85;
+    /**
+     * 准入时为其他用途保留的堆内存比例
+     */
+    private Double memoryReserveRatio = 0.1;
     /**
      * 最大重试次数
      */
@@ -54,6 +115,82 @@ public class CustomizeConfig {
      * 是否允许转换slides
      */
     private boolean enableSlides = false;
+    /**
+     * 任务调度策略 FIFO/SJF/PRIORITY
+     */
+    private SchedulePolicy schedulePolicy = SchedulePolicy.FIFO;
+    /**
+     * 老化时间(秒), 任务每等待该时间, 调度分数减1, 防止任务饿死
+     */
+    private Integer agingSeconds = 60;
+    /**
+     * Word通道并发数, 0代表只受线程池大小限制
+     */
+    private Integer wordConcurrency = 0;
+    /**
+     * Cell通道并发数, 0代表只受线程池大小限制
+     */
+    private Integer cellConcurrency = 0;
+    /**
+     * Slide通道并发数, 0代表只受线程池大小限制
+     */
+    private Integer slideConcurrency = 1;
+    /**
+     * 文件写入完成的判定时间(毫秒), 大小和修改时间在该时间内不再变化才加入任务
+     */
+    private Integer watchDebounceMillis = 500;
+    /**
+     * 快照轮询间隔(秒), 用于WatchService不可用的目录
+     */
+    private Integer watchPollSeconds = 5;
+    /**
+     * 是否强制使用快照轮询(网络文件系统上WatchService可能收不到事件)
+     */
+    private boolean watchPolling = false;
+    /**
+     * 兜底全量扫描间隔(秒), 0代表只在启动时扫描一次
+     */
+    private Integer rescanSeconds = 3600;
+    /**
+     * 添加目录时是否递归添加子目录中的文件
+     */
+    private boolean recursive = false;
+    /**
+     * 递归添加时是否在目的目录下保持源目录结构
+     */
+    private boolean mirrorTree = false;
+    /**
+     * 目录导入时任务列表中最多等待的任务数, 达到后暂停遍历, 0代表不限制
+     */
+    private Integer ingestMaxWaiting = 10000;
+    /**
+     * 任务变更记录保留的条数(每个任务只保留最新一条)
+     */
+    private Integer changeFeedCapacity = 10000;
+    /**
+     * 通过WebSocket推送任务变化的合并窗口(毫秒), 0代表不推送
+     */
+    private Integer missionPushMillis = 200;
+    /**
+     * 内存中保留的已完成任务数, 更早的记录从MySQL查询
+     */
+    private Integer historyWindow = 10000;
+    /**
+     * 启动时每次从数据库读取的id范围
+     */
+    private Integer loadChunkSize = 10000;
+    /**
+     * 批量写入数据库的最大条数
+     */
+    private Integer persistBatchSize = 500;
+    /**
+     * 批量写入数据库的最长等待时间(毫秒)
+     */
+    private Long persistFlushMillis = 1000L;
+    /**
+     * 关闭时无法写入数据库的记录保存到该文件, 下次启动时补写
+     */
+    private String persistSpillFile = "persist-spill.jsonl";
 
     /**
      * 允许获取自定义配置
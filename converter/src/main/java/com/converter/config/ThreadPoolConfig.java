@@ -7,9 +7,13 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
 
 /**
@@ -92,6 +96,14 @@ import java.util.concurrent.FutureTask;
 @Configuration
 @ConfigurationProperties(prefix = "customize.pool")
 public class ThreadPoolConfig {
+    /**
+     * 平台线程模式
+     */
+    public static final String MODE_PLATFORM = "platform";
+    /**
+     * 虚拟线程模式, 需要运行在支持虚拟线程的JDK(21+)上, 否则退回平台线程模式
+     */
+    public static final String MODE_VIRTUAL = "virtual";
     private static ThreadPoolConfig threadPoolConfig;
     /**
      * 核心线程数
@@ -113,6 +125,39 @@ public class ThreadPoolConfig {
      * 线程允许的空闲时间
      */
     private Integer keepAliveSeconds = 60;
+    /**
+     * 调度线程池大小, 任务由回调驱动, 不再为每个任务占用一个调度线程, 与队列长度无关
+     */
+    private Integer schedulerPoolSize = 4;
+    /**
+     * 线程模式, platform或virtual
+     * virtual模式下流程控制(添加任务、任务回调、写入数据库、推送日志)使用虚拟线程, 转换任务仍使用平台线程并限制为CPU核数
+     */
+    private String mode = MODE_PLATFORM;
+    /**
+     * 是否自动调整同时转换的任务数上限
+     */
+    private boolean adaptive = false;
+    /**
+     * 自适应上限的最小值
+     */
+    private Integer adaptiveMin = 1;
+    /**
+     * 自适应上限的最大值, 0代表使用最大线程数
+     */
+    private Integer adaptiveMax = 0;
+    /**
+     * 自适应调整周期(秒)
+     */
+    private Integer adaptiveIntervalSeconds = 10;
+    /**
+     * CPU使用率超过该值时不再增加上限
+     */
+    private Double adaptiveCpuHigh = 0.9;
+    /**
+     * GC时间占比超过该值时减小上限
+     */
+    private Double adaptiveGcHigh = 0.1;
 
     /**
      * 允许获取ThreadPool配置
@@ -143,6 +188,12 @@ public class ThreadPoolConfig {
         log.debug("开始注册bean(ThreadPoolConfig.threadPoolTaskExecutor)");
         // 执行顺序: 核心线程->等待队列->最大线程->RejectedExecutionHandler
         ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+        // virtual模式下转换任务为CPU密集型, 并发数不超过CPU核数
+        if (MODE_VIRTUAL.equals(mode)) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            maxPoolSize = Math.min(maxPoolSize, processors);
+            corePoolSize = Math.min(corePoolSize, maxPoolSize);
+        }
         // 核心线程数
         pool.setCorePoolSize(corePoolSize);
         // 最大线程数
@@ -178,7 +229,7 @@ public class ThreadPoolConfig {
         log.debug("开始注册bean(ThreadPoolConfig.threadPoolTaskScheduler)");
         ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
         // 这个是setCorePoolSize, queueCapacity可递增至Integer.MAX_VALUE, maxPoolSize为Integer.MAX_VALUE(maxPoolSize无效)
-        scheduler.setPoolSize(maxPoolSize + queueCapacity + 5);
+        scheduler.setPoolSize(schedulerPoolSize);
         // 线程前缀
         scheduler.setThreadNamePrefix("scheduler-");
         // 设置线程组名
@@ -188,4 +239,38 @@ public class ThreadPoolConfig {
         log.debug("成功注册bean(ThreadPoolConfig.threadPoolTaskScheduler)");
         return scheduler;
     }
-}
\ No newline at end of file
+
+    /**
+     * 配置流程控制执行器, 用于添加任务、处理任务回调、写入数据库和推送日志
+     * platform模式下直接使用调度线程池, virtual模式下每个任务使用一个虚拟线程
+     */
+    @Bean("orchestrationExecutor")
+    public TaskExecutor orchestrationExecutor(final @Qualifier("threadPoolTaskScheduler") ThreadPoolTaskScheduler threadPoolTaskScheduler) {
+        log.debug("开始注册bean(ThreadPoolConfig.orchestrationExecutor)");
+        Executor executor = null;
+        if (MODE_VIRTUAL.equals(mode)) {
+            executor = newVirtualThreadExecutor();
+            if (executor == null) {
+                log.warn("当前JDK不支持虚拟线程, 使用平台线程模式");
+            }
+        }
+        if (executor == null) {
+            executor = threadPoolTaskScheduler.getScheduledExecutor();
+        }
+        log.debug("成功注册bean(ThreadPoolConfig.orchestrationExecutor)");
+        return new ConcurrentTaskExecutor(executor);
+    }
+
+    /**
+     * 通过反射创建虚拟线程执行器, 使项目在低版本JDK上仍可编译运行
+     *
+     * @return 虚拟线程执行器, 不支持时返回null
+     */
+    private static Executor newVirtualThreadExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
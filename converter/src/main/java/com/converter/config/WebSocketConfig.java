@@ -1,8 +1,12 @@
 package com.converter.config;
 
+import com.alibaba.fastjson.JSONObject;
+import com.converter.core.ChangeFeed;
 import com.converter.core.ConvertManager;
 import com.converter.log.LogQueue;
 import com.converter.pojo.LoggerMessage;
+import com.converter.utils.StringUtils;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Configuration;
@@ -13,17 +17,27 @@ import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 
 import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
 
 /**
  * WebSocket配置
  *
  * @author Evan
  */
+@Slf4j
 @DependsOn("convertManager")
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+    /**
+     * 每条任务变化消息最多包含的任务数
+     */
+    private static final int PUSH_BATCH = 1000;
     private SimpMessagingTemplate messagingTemplate;
+    /**
+     * 已推送到的版本号
+     */
+    private volatile long pushedVersion = 0;
 
     /**
      * 自动注入SimpMessagingTemplate
@@ -51,8 +65,7 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     @SuppressWarnings("InfiniteLoopStatement")
     @PostConstruct
     public void pushLogger() {
-        ConvertManager.getThreadPoolTaskScheduler()
-                .getScheduledThreadPoolExecutor()
+        ConvertManager.getOrchestrationExecutor()
                 .execute(() -> {
                     while (true) {
                         try {
@@ -65,4 +78,34 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                     }
                 });
     }
-}
\ No newline at end of file
+
+    /**
+     * 推送任务变化, 每隔mission-push-millis合并推送一次
+     * 同一任务在窗口内的多次变化只推送最新状态, 不论打开多少页面, 每个窗口只生成一条消息, 由broker分发
+     */
+    @PostConstruct
+    public void pushMissions() {
+        long interval = CustomizeConfig.instance().getMissionPushMillis();
+        if (interval <= 0) {
+            return;
+        }
+        pushedVersion = ChangeFeed.getVersion();
+        ConvertManager.getThreadPoolTaskScheduler().getScheduledExecutor().scheduleWithFixedDelay(() -> {
+            try {
+                while (pushedVersion != ChangeFeed.getVersion()) {
+                    JSONObject changes = ChangeFeed.changesSince(pushedVersion, PUSH_BATCH);
+                    // 客户端据此判断消息是否与本地版本衔接, 不衔接时通过/getChanges补齐
+                    changes.put("since", pushedVersion);
+                    messagingTemplate.convertAndSend("/missions", StringUtils.toJsonString(changes));
+                    ChangeFeed.recordPush(changes.getJSONArray("changes").size());
+                    pushedVersion = changes.getLongValue("next");
+                    if (!changes.getBooleanValue("more")) {
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("推送任务变化失败", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+}
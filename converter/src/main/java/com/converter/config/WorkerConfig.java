@@ -0,0 +1,60 @@
+package com.converter.config;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 转换进程配置
+ * 启用后文档转换在预先启动的子进程(独立JVM)中执行, 单个文档导致的堆溢出或崩溃只影响对应子进程
+ *
+ * @author Evan
+ */
+@Slf4j
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "customize.worker")
+public class WorkerConfig {
+    private static WorkerConfig workerConfig;
+    /**
+     * 是否启用转换进程
+     */
+    private boolean enabled = false;
+    /**
+     * 转换进程数
+     */
+    private Integer size = 2;
+    /**
+     * 每个转换进程的最大堆内存(-Xmx)
+     */
+    private String maxHeap = "1g";
+    /**
+     * 转换进程完成多少次转换后重启, 0代表不限制
+     */
+    private Integer maxConversions = 100;
+    /**
+     * 转换进程常驻内存(RSS)超过多少MB后重启, 0代表不限制
+     */
+    private Integer maxRssMb = 2048;
+    /**
+     * java可执行文件路径, 为空则使用当前JVM
+     */
+    private String javaPath = "";
+
+    /**
+     * 允许获取转换进程配置
+     */
+    public static WorkerConfig instance() {
+        return workerConfig;
+    }
+
+    @Autowired()
+    public void init(final @Qualifier("workerConfig") WorkerConfig workerConfig) {
+        log.debug("开始初始化WorkerConfig");
+        WorkerConfig.workerConfig = workerConfig;
+        log.debug("成功初始化WorkerConfig");
+    }
+}
@@ -0,0 +1,28 @@
+package com.converter.constant;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 文档类别, 对应不同的转换器
+ *
+ * @author Evan
+ */
+
+@SuppressWarnings("AlibabaEnumConstantsMustHaveComment")
+@Getter
+@AllArgsConstructor
+public enum DocumentType {
+    WORD(1.0, 10.0),
+    CELL(2.0, 30.0),
+    SLIDE(3.0, 20.0);
+
+    /**
+     * 单位文件大小的相对转换代价, 用于估算任务耗时
+     */
+    private double costWeight;
+    /**
+     * 转换时堆内存占用与文件大小的大致倍数, 用于内存准入控制
+     */
+    private double heapFactor;
+}
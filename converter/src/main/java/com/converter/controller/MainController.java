@@ -1,11 +1,21 @@
 package com.converter.controller;
 
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONObject;
 import com.converter.config.CustomizeConfig;
+import com.converter.constant.ConvertStatus;
+import com.converter.core.ChangeFeed;
 import com.converter.core.ConvertManager;
-import com.converter.pojo.ConvertInfo;
+import com.converter.core.DirectoryWatcher;
+import com.converter.core.FinishedHistory;
+import com.converter.exception.ConvertException;
+import com.converter.exception.FileException;
+import com.converter.exception.UploadException;
 import com.converter.service.MainService;
 import com.converter.utils.FileUtils;
 import com.converter.utils.RedisUtils;
+import com.converter.utils.StringUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.authc.AuthenticationException;
@@ -13,20 +23,31 @@ import org.apache.shiro.authc.UsernamePasswordToken;
 import org.apache.shiro.subject.Subject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.file.Files;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
 
 /**
  * 主Controller类
@@ -44,6 +65,27 @@ public class MainController {
      * 表明添加的是文件夹
      */
     private static final String TYPE_DIR = "dir";
+    /**
+     * 返回任务列表版本号的响应头
+     */
+    private static final String CHANGE_VERSION_HEADER = "X-Change-Version";
+    /**
+     * 分页接口每页最大数量
+     */
+    private static final int MAX_PAGE_SIZE = 5000;
+    /**
+     * 上传分段起始位置的请求头
+     */
+    private static final String UPLOAD_OFFSET_HEADER = "Upload-Offset";
+    /**
+     * 批量添加任务的最大数量
+     */
+    private static final int MAX_BATCH_SIZE = 10000;
+    /**
+     * NDJSON格式(每行一个json对象)
+     */
+    private static final String NDJSON = "application/ndjson";
+    private static final String X_NDJSON = "application/x-ndjson";
     /**
      * service对象
      */
@@ -109,19 +151,64 @@ public class MainController {
 
     /**
      * 获取任务列表信息, 返回json格式供前端使用
+     * 响应头X-Change-Version为获取列表之前的版本号, 之后用/getChanges增量更新(cache参数已不再使用, 保留兼容)
      */
     @GetMapping("/getInfo")
     @ResponseBody
-    public String getInfo(final @RequestParam boolean cache) {
+    public String getInfo(final @RequestParam(required = false) Boolean cache,
+                          final HttpServletResponse response) {
         String info = null;
         try {
-            info = service.getAllConvertInfoOfJson(cache);
+            // 先取版本号再取列表, 期间发生的变化会在下次增量更新时重复返回, 不会遗漏
+            response.setHeader(CHANGE_VERSION_HEADER, String.valueOf(ChangeFeed.getVersion()));
+            info = service.getAllConvertInfoOfJson();
         } catch (Exception e) {
             log.error("获取信息失败", e);
         }
         return info;
     }
 
+    /**
+     * 获取指定版本之后变化的任务, 不传since时只返回当前版本号
+     */
+    @GetMapping("/getChanges")
+    @ResponseBody
+    public String getChanges(final @RequestParam(required = false) Long since,
+                             final @RequestParam(required = false, defaultValue = "500") int limit) {
+        String changes = null;
+        try {
+            changes = service.getChanges(since == null ? ChangeFeed.getVersion() : since,
+                    Math.max(0, Math.min(limit, MAX_PAGE_SIZE)));
+        } catch (Exception e) {
+            log.error("获取任务变化失败", e);
+        }
+        return changes;
+    }
+
+    /**
+     * 分页获取已完成任务, status为逗号分隔的状态(FINISH,ERROR,CANCEL), 为空代表全部
+     */
+    @GetMapping("/getHistory")
+    @ResponseBody
+    public String getHistory(final @RequestParam(required = false, defaultValue = "1") int page,
+                             final @RequestParam(required = false, defaultValue = "50") int size,
+                             final @RequestParam(required = false) String status) {
+        try {
+            Set<ConvertStatus> statuses = EnumSet.noneOf(ConvertStatus.class);
+            if (!StringUtils.isEmpty(status)) {
+                for (String item : status.split(",")) {
+                    statuses.add(ConvertStatus.valueOf(item.trim().toUpperCase()));
+                }
+            }
+            return service.getHistory(Math.max(1, page), Math.max(1, Math.min(size, MAX_PAGE_SIZE)), statuses);
+        } catch (IllegalArgumentException e) {
+            return "error status: " + status;
+        } catch (Exception e) {
+            log.error("获取已完成任务失败", e);
+            return null;
+        }
+    }
+
     /**
      * 获取redis缓存中监控的文件/文件夹
      */
@@ -152,6 +239,21 @@ public class MainController {
         return threadsInfo;
     }
 
+    /**
+     * 获取任务统计信息(调度等待时间等)
+     */
+    @GetMapping("/getStatistics")
+    @ResponseBody
+    public String getStatistics() {
+        String statistics = null;
+        try {
+            statistics = service.getStatistics();
+        } catch (Exception e) {
+            log.error("获取统计信息失败", e);
+        }
+        return statistics;
+    }
+
     /**
      * 登录
      */
@@ -193,34 +295,28 @@ public class MainController {
             String sourcePath = map.get("sourcePath")[0].trim();
             String targetPath = map.get("targetPath")[0].trim();
             String type = map.get("type")[0].trim();
-            boolean useDefaultTargetDir = "".equals(targetPath);
+            // 优先级, 不填写则为0
+            String[] priorities = map.get("priority");
+            int priority = priorities == null || "".equals(priorities[0].trim()) ? 0 : Integer.parseInt(priorities[0].trim());
+            // 不填写则使用默认目的路径
+            if ("".equals(targetPath)) {
+                targetPath = CustomizeConfig.instance().getTargetDirPath();
+            }
             // 如果上传文件非空, 则使用上传文件
             if (!file.isEmpty()) {
                 String fileName = System.currentTimeMillis() + ConvertManager.UPLOAD + file.getOriginalFilename();
                 String filePath = FileUtils.dealWithDir(CustomizeConfig.instance().getUploadPath()) + fileName;
                 file.transferTo(new File(filePath));
-                if (useDefaultTargetDir) {
-                    service.addMission(filePath);
-                } else {
-                    service.addMission(filePath, targetPath);
-                }
+                service.addMission(filePath, targetPath, priority);
                 return "success";
             }
             // 添加文件
             if (TYPE_FILE.equals(type)) {
-                if (useDefaultTargetDir) {
-                    service.addMission(sourcePath);
-                } else {
-                    service.addMission(sourcePath, targetPath);
-                }
+                service.addMission(sourcePath, targetPath, priority);
             }
             // 添加文件夹
             else if (TYPE_DIR.equals(type)) {
-                if (useDefaultTargetDir) {
-                    service.addMissions(sourcePath);
-                } else {
-                    service.addMissions(sourcePath, targetPath);
-                }
+                service.addMissions(sourcePath, targetPath, priority);
             } else {
                 return "error file type, it should be file or dir";
             }
@@ -269,35 +365,266 @@ public class MainController {
         }
     }
 
+    /**
+     * 同步转换, 请求体为文档内容(或multipart中的file), filename用于判断文档类型, 直接返回PDF
+     * 与排队的任务共用线程池容量、转换通道限制和超时时间: 没有空位返回503, 超时返回504
+     */
+    @PostMapping("/convert")
+    public void convertNow(final @RequestParam(required = false) String filename,
+                           final @RequestParam(value = "file", required = false) MultipartFile file,
+                           final HttpServletRequest request,
+                           final HttpServletResponse response) throws IOException {
+        String name = file != null ? file.getOriginalFilename() : filename;
+        try {
+            if (StringUtils.isEmpty(name)) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "filename is required");
+                return;
+            }
+            long maxSize = CustomizeConfig.instance().getSyncMaxSizeMb() * 1024L * 1024L;
+            byte[] content = file != null ? file.getBytes() : readBody(request, maxSize);
+            if (content == null || content.length > maxSize) {
+                response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                return;
+            }
+            byte[] pdf = service.convertNow(name, content);
+            String pdfName = new File(name).getName() + ".pdf";
+            response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+            response.setContentLength(pdf.length);
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                    "inline; filename*=UTF-8''" + URLEncoder.encode(pdfName, "UTF-8").replace("+", "%20"));
+            response.getOutputStream().write(pdf);
+        } catch (FileException.FileTypeException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        } catch (ConvertException.BusyException e) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+        } catch (TimeoutException e) {
+            response.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT, "convert timeout");
+        } catch (Exception e) {
+            log.error("同步转换[{}]失败", name, e);
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * 读取请求体, 超过maxSize时停止读取
+     *
+     * @param request 请求
+     * @param maxSize 最大长度
+     * @return 请求体, 超过maxSize时返回null
+     * @throws IOException 读取失败
+     */
+    private static byte[] readBody(final HttpServletRequest request,
+                                   final long maxSize) throws IOException {
+        if (request.getContentLengthLong() > maxSize) {
+            return null;
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.max(1024, request.getContentLength()));
+        byte[] buffer = new byte[64 * 1024];
+        int length;
+        InputStream inputStream = request.getInputStream();
+        while ((length = inputStream.read(buffer)) != -1) {
+            if (outputStream.size() + length > maxSize) {
+                return null;
+            }
+            outputStream.write(buffer, 0, length);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * 批量添加文件任务, 请求体为json数组或NDJSON(每行一个对象), 每项包含source, 可选target和priority
+     * 返回每项的结果: accepted(带任务id)、duplicate或error(带错误信息)
+     */
+    @PostMapping(value = "/addMissionBatch", consumes = {MediaType.APPLICATION_JSON_VALUE, NDJSON, X_NDJSON})
+    @ResponseBody
+    public String addMissionBatch(final @RequestBody String body,
+                                  final @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                  final HttpServletResponse response) {
+        try {
+            List<JSONObject> items = new ArrayList<>();
+            if (contentType.contains(NDJSON) || contentType.contains(X_NDJSON)) {
+                for (String line : body.split("\\r?\\n")) {
+                    if (!line.trim().isEmpty()) {
+                        items.add(JSONObject.parseObject(line));
+                    }
+                }
+            } else {
+                List<JSONObject> array = JSONArray.parseArray(body, JSONObject.class);
+                if (array != null) {
+                    items = array;
+                }
+            }
+            if (items.size() > MAX_BATCH_SIZE) {
+                response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                return "too many items: " + items.size();
+            }
+            return service.addMissionBatch(items);
+        } catch (JSONException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return e.getMessage();
+        } catch (Exception e) {
+            log.error("批量添加任务失败", e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * 批量上传文件并添加任务, 所有文件使用相同的目的路径和优先级
+     */
+    @PostMapping(value = "/addMissionBatch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @ResponseBody
+    public String uploadMissionBatch(final @RequestParam("files") MultipartFile[] files,
+                                     final @RequestParam(required = false, defaultValue = "") String targetPath,
+                                     final @RequestParam(required = false, defaultValue = "0") int priority,
+                                     final HttpServletResponse response) {
+        try {
+            if (files.length > MAX_BATCH_SIZE) {
+                response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                return "too many files: " + files.length;
+            }
+            String uploadDir = FileUtils.dealWithDir(CustomizeConfig.instance().getUploadPath());
+            List<JSONObject> items = new ArrayList<>(files.length);
+            // 同一批中同名文件的出现次数
+            Map<String, Integer> names = new HashMap<>();
+            for (MultipartFile file : files) {
+                if (file.isEmpty()) {
+                    continue;
+                }
+                String name = new File(file.getOriginalFilename()).getName();
+                int count = names.merge(name, 1, Integer::sum);
+                // 同名文件加上序号, 避免目的文件互相覆盖
+                if (count > 1) {
+                    int dot = name.lastIndexOf('.');
+                    name = dot > 0 ? name.substring(0, dot) + "(" + (count - 1) + ")" + name.substring(dot)
+                            : name + "(" + (count - 1) + ")";
+                }
+                // 使用UUID作为前缀, 同一毫秒内上传的同名文件也不会互相覆盖
+                String filePath = uploadDir + UUID.randomUUID().toString().replace("-", "") + ConvertManager.UPLOAD
+                        + name;
+                file.transferTo(new File(filePath));
+                JSONObject item = new JSONObject();
+                item.put("source", filePath);
+                item.put("target", targetPath);
+                item.put("priority", priority);
+                items.add(item);
+            }
+            return service.addMissionBatch(items);
+        } catch (Exception e) {
+            log.error("批量上传文件失败", e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * 创建流式上传会话, 之后用PUT /upload/{id}写入文件内容(不受multipart大小限制)
+     */
+    @PostMapping("/upload")
+    @ResponseBody
+    public String createUpload(final @RequestParam String name,
+                               final @RequestParam long size,
+                               final @RequestParam(required = false, defaultValue = "") String targetPath,
+                               final @RequestParam(required = false, defaultValue = "0") int priority,
+                               final HttpServletResponse response) {
+        try {
+            return service.createUpload(name, size, targetPath, priority);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return e.getMessage();
+        } catch (Exception e) {
+            log.error("创建上传会话失败", e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * 查询上传会话已接收的长度, 用于断点续传
+     */
+    @GetMapping("/upload/{id}")
+    @ResponseBody
+    public String getUploadStatus(final @PathVariable String id,
+                                  final HttpServletResponse response) {
+        try {
+            return service.getUploadStatus(id);
+        } catch (UploadException.SessionNotFoundException e) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * 写入上传内容, 请求体为文件从Upload-Offset开始的一段(或全部), 直接写入上传目录, 不经过内存和临时文件
+     * Upload-Offset与已接收长度不一致时返回409, 响应头Upload-Offset为已接收长度
+     */
+    @PutMapping("/upload/{id}")
+    @ResponseBody
+    public String appendUpload(final @PathVariable String id,
+                               final @RequestHeader(value = UPLOAD_OFFSET_HEADER, defaultValue = "0") long offset,
+                               final HttpServletRequest request,
+                               final HttpServletResponse response) {
+        try {
+            return service.appendUpload(id, offset, request.getInputStream());
+        } catch (UploadException.SessionNotFoundException e) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return e.getMessage();
+        } catch (UploadException.OffsetMismatchException e) {
+            response.setStatus(HttpServletResponse.SC_CONFLICT);
+            response.setHeader(UPLOAD_OFFSET_HEADER, String.valueOf(e.getOffset()));
+            return e.getMessage();
+        } catch (UploadException.SizeExceededException e) {
+            response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return e.getMessage();
+        } catch (Exception e) {
+            log.error("写入上传内容失败[{}]", id, e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return e.getMessage();
+        }
+    }
+
     /**
      * 用于预览PDF文件
+     * 支持Range请求(浏览器PDF阅读器可以分段加载)和ETag/Last-Modified缓存, 文件按固定大小的缓冲区写出, 内存占用与文件大小无关
      *
-     * @param filename 文件名
+     * @param filename   文件名
+     * @param source     源文件路径
+     * @param webRequest 请求
+     * @return PDF文件, Range请求时由Spring转为206分段响应; 未修改或验证失败时返回null(已写入响应)
      */
     @RequestMapping("/preview")
-    public void readPdf(final @RequestParam String filename,
-                        final @RequestParam String source,
-                        final HttpServletResponse response) {
+    public ResponseEntity<Resource> readPdf(final @RequestParam String filename,
+                                            final @RequestParam String source,
+                                            final ServletWebRequest webRequest) {
         try {
-            if (verify(source, filename)) {
+            File file = new File(filename);
+            if (verify(source, filename) && file.isFile()) {
                 log.debug("预览文件{}", filename);
-                response.reset();
-                response.setContentType("application/pdf");
-                OutputStream output = response.getOutputStream();
-                output.write(Files.readAllBytes(new File(filename).toPath()));
-                output.flush();
-                output.close();
-                return;
+                long lastModified = file.lastModified();
+                String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(file.length()) + "\"";
+                // 文件未修改时直接返回304
+                if (webRequest.checkNotModified(etag, lastModified)) {
+                    return null;
+                }
+                return ResponseEntity.ok()
+                        .contentType(MediaType.APPLICATION_PDF)
+                        .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                        .body(new FileSystemResource(file));
             }
         } catch (Exception e) {
             log.error("MainController预览文件[{}]错误: {}", filename, e.toString());
         }
         // 如果验证失败, 则跳转至404页面
         try {
-            response.sendRedirect("error/404");
+            HttpServletResponse response = webRequest.getResponse();
+            if (response != null) {
+                response.sendRedirect("error/404");
+            }
         } catch (IOException e) {
             log.error(e.getMessage());
         }
+        return null;
     }
 
     /**
@@ -309,14 +636,7 @@ public class MainController {
      */
     private boolean verify(final String source,
                            final String target) {
-        List<ConvertInfo> finishedInfo = ConvertManager.getFinishedInfo();
-        for (ConvertInfo convertInfo : finishedInfo) {
-            if (convertInfo.getSourceFilePath().equals(source)
-                    && convertInfo.getTargetFilePath().equals(target)) {
-                return true;
-            }
-        }
-        return false;
+        return FinishedHistory.contains(source, target);
     }
 
     /**
@@ -338,6 +658,12 @@ public class MainController {
                 return "error file type, it should be file or dir";
             }
             RedisUtils.setRemove(key, path);
+            if (TYPE_FILE.equals(type)) {
+                FileUtils.forgetFile(path);
+                FileUtils.invalidateFingerprint();
+            } else {
+                DirectoryWatcher.unwatch(path);
+            }
             return "success";
         } catch (Exception e) {
             log.error("MainController删除监控文件错误: {}", e.getMessage());
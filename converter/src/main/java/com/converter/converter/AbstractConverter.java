@@ -1,10 +1,13 @@
 package com.converter.converter;
 
 import com.converter.config.CustomizeConfig;
+import com.converter.config.WorkerConfig;
 import com.converter.constant.CellType;
+import com.converter.constant.DocumentType;
 import com.converter.constant.SlideType;
 import com.converter.constant.WordType;
 import com.converter.converter.impl.CellConverter;
+import com.converter.converter.impl.RemoteConverter;
 import com.converter.converter.impl.SlideConverter;
 import com.converter.converter.impl.WordConverter;
 import com.converter.exception.ConvertException;
@@ -12,6 +15,9 @@ import com.converter.exception.FileException;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -27,7 +33,7 @@ public abstract class AbstractConverter {
             = new com.aspose.cells.LoadOptions();
 
     private static com.aspose.words.PdfSaveOptions wordToPdfOptions
-            = new com.aspose.words.PdfSaveOptions();
+            = newWordToPdfOptions();
     private static com.aspose.cells.PdfSaveOptions cellToPdfOptions
             = new com.aspose.cells.PdfSaveOptions();
     private static com.aspose.slides.PdfOptions slideToPdfOptions
@@ -51,16 +57,12 @@ public abstract class AbstractConverter {
             .map(SlideType::getType)
             .distinct()
             .collect(Collectors.toList());
+    /**
+     * 分段转换额外占用的转换位置, 由ConvertManager设置; 转换进程和基准测试中为null, 不限制
+     */
+    private static SlotBudget slotBudget = null;
 
     static {
-        // =============================Word============================
-        // 设置启用超链
-        wordToPdfOptions.setCreateNoteHyperlinks(true);
-        // 减小内存消耗, 不过会增加处理时间
-        wordToPdfOptions.setMemoryOptimization(true);
-        // 优化输出, 不过可能影响结果准确性
-        wordToPdfOptions.setOptimizeOutput(true);
-
         // =============================Cell============================
         // 优化内存
         cellLoadOptions.setMemorySetting(com.aspose.cells.MemorySetting.MEMORY_PREFERENCE);
@@ -72,10 +74,42 @@ public abstract class AbstractConverter {
         slideToPdfOptions.setShowHiddenSlides(true);
     }
 
+    /**
+     * 创建Word转PDF参数, 分段转换时每段需要单独设置页码范围
+     *
+     * @return 转换参数
+     */
+    public static com.aspose.words.PdfSaveOptions newWordToPdfOptions() {
+        com.aspose.words.PdfSaveOptions options = new com.aspose.words.PdfSaveOptions();
+        // 设置启用超链
+        options.setCreateNoteHyperlinks(true);
+        // 减小内存消耗, 不过会增加处理时间
+        options.setMemoryOptimization(true);
+        // 优化输出, 不过可能影响结果准确性
+        options.setOptimizeOutput(true);
+        return options;
+    }
+
     /**
      * 初始化, 载入授权文件, 并设置字体目录
      */
     public static void init() {
+        CustomizeConfig config = CustomizeConfig.instance();
+        init(config.getFontDir(), config.isAllowWithoutLicense());
+        WordConverter.configure(config.getWordSplitPages(), config.getWordSplitMinSizeMb(), config.getWordSplitThreads());
+        CellConverter.configure(config.getCellSplitSheets(), config.getCellSplitMinSizeMb(), config.getCellSplitThreads());
+        CellConverter.configureStreaming(config.getCellStreamMinSizeMb(), config.getCellStreamChunkRows(),
+                config.getCellStreamCharset());
+    }
+
+    /**
+     * 初始化, 载入授权文件, 并设置字体目录(转换进程中没有Spring上下文, 直接传入配置)
+     *
+     * @param fontDir             字体目录
+     * @param allowWithoutLicense 是否允许没有授权文件
+     */
+    public static void init(final String fontDir,
+                            final boolean allowWithoutLicense) {
         try {
             log.debug("开始初始化AbstractConverter");
             InputStream inputStream;
@@ -89,7 +123,7 @@ public abstract class AbstractConverter {
             inputStream = AbstractConverter.class.getResourceAsStream("/static/license/license.lic");
             new com.aspose.slides.License().setLicense(inputStream);
         } catch (Exception e) {
-            if (CustomizeConfig.instance().isAllowWithoutLicense()) {
+            if (allowWithoutLicense) {
                 log.warn("授权文件未加载, 转换文件会有水印");
             } else {
                 throw new ConvertException.LicenseException(e);
@@ -97,7 +131,6 @@ public abstract class AbstractConverter {
         }
         try {
             // 设置字体目录
-            String fontDir = CustomizeConfig.instance().getFontDir();
             com.aspose.words.FontSettings.getDefaultInstance().setFontsFolder(fontDir, false);
             com.aspose.cells.FontConfigs.setFontFolder(fontDir, false);
             com.aspose.slides.FontsLoader.loadExternalFonts(new String[]{fontDir});
@@ -107,26 +140,104 @@ public abstract class AbstractConverter {
         }
     }
 
+    /**
+     * 根据文件后缀名获取文档类别
+     *
+     * @param sourceFilePath 源文件路径
+     * @return 文档类别, 不支持的类型(包括未启用的slides)返回null
+     */
+    public static DocumentType getDocumentType(final String sourceFilePath) {
+        String fileExtension = sourceFilePath.substring(sourceFilePath.lastIndexOf(".") + 1).toUpperCase();
+
+        if (wordTypes.contains(fileExtension)) {
+            return DocumentType.WORD;
+        } else if (cellTypes.contains(fileExtension)) {
+            return DocumentType.CELL;
+        } else if (CustomizeConfig.instance().isEnableSlides()
+                && slideTypes.contains(fileExtension)) {
+            return DocumentType.SLIDE;
+        }
+        return null;
+    }
+
+    /**
+     * 获取启用的文档类别
+     *
+     * @return 文档类别
+     */
+    public static List<DocumentType> getEnabledTypes() {
+        List<DocumentType> documentTypes = new ArrayList<>(Arrays.asList(DocumentType.WORD, DocumentType.CELL));
+        if (CustomizeConfig.instance().isEnableSlides()) {
+            documentTypes.add(DocumentType.SLIDE);
+        }
+        return documentTypes;
+    }
+
     /**
      * 根据文件后缀名获取对应的转换器
      *
      * @param sourceFilePath 源文件路径
      */
     public static AbstractConverter getConverter(final String sourceFilePath) {
-        AbstractConverter converter;
-        String fileExtension = sourceFilePath.substring(sourceFilePath.lastIndexOf(".") + 1);
+        DocumentType documentType = getDocumentType(sourceFilePath);
+        if (documentType == null) {
+            throw new FileException.FileTypeException(sourceFilePath.substring(sourceFilePath.lastIndexOf(".") + 1));
+        }
+        // 启用转换进程时, 交给独立的子进程转换
+        WorkerConfig workerConfig = WorkerConfig.instance();
+        if (workerConfig != null && workerConfig.isEnabled()) {
+            return new RemoteConverter(documentType, sourceFilePath.substring(sourceFilePath.lastIndexOf(".") + 1));
+        }
+        return newConverter(documentType);
+    }
 
-        if (wordTypes.contains(fileExtension.toUpperCase())) {
-            converter = new WordConverter();
-        } else if (cellTypes.contains(fileExtension.toUpperCase())) {
-            converter = new CellConverter();
-        } else if (CustomizeConfig.instance().isEnableSlides()
-                && slideTypes.contains(fileExtension.toUpperCase())) {
-            converter = new SlideConverter();
-        } else {
-            throw new FileException.FileTypeException(fileExtension);
+    /**
+     * 创建文档类别对应的本地转换器
+     *
+     * @param documentType 文档类别
+     */
+    public static AbstractConverter newConverter(final DocumentType documentType) {
+        switch (documentType) {
+            case WORD:
+                return new WordConverter();
+            case CELL:
+                return new CellConverter();
+            default:
+                return new SlideConverter();
+        }
+    }
+
+    /**
+     * 获取影响转换结果的参数摘要, 作为转换缓存键的一部分, 参数变化后旧缓存自动失效
+     *
+     * @param documentType 文档类别
+     * @return 参数摘要
+     */
+    public static String getOptionsFingerprint(final DocumentType documentType) {
+        CustomizeConfig config = CustomizeConfig.instance();
+        String fontDir = config.getFontDir();
+        switch (documentType) {
+            case WORD:
+                // 分段转换的结果与整篇转换不完全相同(段间的内部链接和书签)
+                return String.format("WORD|%s|%s|%s|%s|%s|%s", fontDir,
+                        wordToPdfOptions.getCreateNoteHyperlinks(),
+                        wordToPdfOptions.getMemoryOptimization(),
+                        wordToPdfOptions.getOptimizeOutput(),
+                        config.getWordSplitPages(),
+                        config.getWordSplitMinSizeMb());
+            case CELL:
+                // 流式转换只输出文本, 分段和流式参数变化后旧缓存必须失效
+                return String.format("CELL|%s|%s|%s|%s|%s|%s|%s", fontDir,
+                        cellLoadOptions.getMemorySetting(),
+                        cellToPdfOptions.getAllColumnsInOnePagePerSheet(),
+                        config.getCellSplitSheets(),
+                        config.getCellSplitMinSizeMb(),
+                        config.getCellStreamMinSizeMb(),
+                        config.getCellStreamChunkRows());
+            default:
+                return String.format("SLIDE|%s|%s", fontDir,
+                        slideToPdfOptions.getShowHiddenSlides());
         }
-        return converter;
     }
 
     /**
@@ -157,6 +268,64 @@ public abstract class AbstractConverter {
         return slideToPdfOptions;
     }
 
+    /**
+     * 设置分段转换额外占用的转换位置
+     *
+     * @param budget 转换位置
+     */
+    public static void setSlotBudget(final SlotBudget budget) {
+        slotBudget = budget;
+    }
+
+    /**
+     * 为分段转换的其余各段占用转换位置(任务本身已占用一个), 与其他任务共用通道和并发上限
+     *
+     * @param documentType 文档类别
+     * @param wanted       需要的位置数
+     * @return 实际占用的位置数, 可能少于wanted
+     */
+    protected static int acquireSlots(final DocumentType documentType,
+                                      final int wanted) {
+        SlotBudget budget = slotBudget;
+        return budget == null ? wanted : budget.acquire(documentType, wanted);
+    }
+
+    /**
+     * 释放分段转换占用的转换位置
+     *
+     * @param documentType 文档类别
+     * @param count        位置数
+     */
+    protected static void releaseSlots(final DocumentType documentType,
+                                       final int count) {
+        SlotBudget budget = slotBudget;
+        if (budget != null && count > 0) {
+            budget.release(documentType, count);
+        }
+    }
+
+    /**
+     * 转换位置, 分段转换的每一段都占用一个, 防止一个任务占满所有CPU
+     */
+    public interface SlotBudget {
+        /**
+         * 尝试占用位置
+         *
+         * @param documentType 文档类别
+         * @param wanted       需要的位置数
+         * @return 实际占用的位置数
+         */
+        int acquire(DocumentType documentType, int wanted);
+
+        /**
+         * 释放位置
+         *
+         * @param documentType 文档类别
+         * @param count        位置数
+         */
+        void release(DocumentType documentType, int count);
+    }
+
     /**
      * 抽象方法, 用于执行转换任务, 由子类实现
      *
@@ -166,6 +335,15 @@ public abstract class AbstractConverter {
     public abstract void convert(final String sourceFilePath,
                                  final String targetFilePath);
 
+    /**
+     * 抽象方法, 用于同步转换, 从输入流读取文档并将PDF写入输出流, 由子类实现
+     *
+     * @param inputStream  源文档
+     * @param outputStream PDF输出
+     */
+    public abstract void convert(final InputStream inputStream,
+                                 final OutputStream outputStream);
+
     /**
      * 抽象方法, 用于中断任务, 由子类实现
      */
@@ -0,0 +1,205 @@
+package com.converter.converter;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.converter.constant.DocumentType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 转换器预热
+ * 启动时(Tomcat开始接收请求之前)用内存中生成的示例文档把每种启用的类型各转换几轮,
+ * 提前完成类加载、字体扫描(结果缓存在FontSettings、FontConfigs、FontsLoader中)和JIT编译, 避免由前几百个任务承担
+ * 同时记录启动到转换变快所需的时间, 以及启动后每种类型第一个任务的耗时, 用于对比启用和关闭预热的效果
+ * 不依赖Spring, 转换进程中同样可以使用
+ *
+ * @author Evan
+ */
+@Slf4j
+public final class ConverterWarmup {
+    /**
+     * 耗时不超过最后一轮的多少倍时认为已经变快
+     */
+    private static final double FAST_RATIO = 1.5;
+    /**
+     * 预热结果
+     */
+    private static final Map<DocumentType, JSONObject> WARMUP = new EnumMap<>(DocumentType.class);
+    /**
+     * 启动后每种类型第一个任务的耗时
+     */
+    private static final Map<DocumentType, JSONObject> FIRST = new EnumMap<>(DocumentType.class);
+    /**
+     * 预热完成时JVM已运行的时间(毫秒)
+     */
+    private static long readyUptime = -1;
+
+    private ConverterWarmup() {
+    }
+
+    /**
+     * 预热, 每种类型转换rounds轮, 出错只记录日志, 不影响启动
+     *
+     * @param documentTypes 需要预热的文档类别
+     * @param rounds        轮数, 0代表不预热
+     */
+    public static void run(final List<DocumentType> documentTypes,
+                           final int rounds) {
+        if (rounds <= 0) {
+            return;
+        }
+        for (DocumentType documentType : documentTypes) {
+            JSONArray millis = new JSONArray();
+            long[] uptimes = new long[rounds];
+            JSONObject json = new JSONObject();
+            try {
+                byte[] sample = sample(documentType);
+                for (int i = 0; i < rounds; i++) {
+                    long start = System.currentTimeMillis();
+                    AbstractConverter.newConverter(documentType)
+                            .convert(new ByteArrayInputStream(sample), new ByteArrayOutputStream());
+                    millis.add(System.currentTimeMillis() - start);
+                    uptimes[i] = uptime();
+                }
+                long last = millis.getLongValue(rounds - 1);
+                json.put("cold", millis.getLongValue(0));
+                json.put("warm", last);
+                // 耗时第一次接近最后一轮的时间点, 即启动到转换变快所需的时间
+                for (int i = 0; i < rounds; i++) {
+                    if (millis.getLongValue(i) <= last * FAST_RATIO) {
+                        json.put("fastAfterUptime", uptimes[i]);
+                        break;
+                    }
+                }
+                log.info("{}预热完成, 各轮耗时{}ms", documentType, millis);
+            } catch (Exception e) {
+                json.put("error", e.getMessage());
+                log.error("{}预热失败", documentType, e);
+            }
+            json.put("rounds", millis);
+            synchronized (WARMUP) {
+                WARMUP.put(documentType, json);
+            }
+        }
+        readyUptime = uptime();
+    }
+
+    /**
+     * 记录转换耗时, 只保留启动后每种类型的第一个
+     *
+     * @param documentType 文档类别
+     * @param millis       耗时(毫秒)
+     */
+    public static void recordConversion(final DocumentType documentType,
+                                        final long millis) {
+        if (documentType == null) {
+            return;
+        }
+        synchronized (FIRST) {
+            if (!FIRST.containsKey(documentType)) {
+                JSONObject json = new JSONObject();
+                json.put("millis", millis);
+                json.put("uptime", uptime());
+                FIRST.put(documentType, json);
+            }
+        }
+    }
+
+    /**
+     * 获取预热和首个任务的统计信息
+     *
+     * @return json对象: readyUptime预热完成时JVM已运行的时间, warmup各类型每轮耗时, firstMission启动后各类型第一个任务
+     */
+    public static JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("readyUptime", readyUptime);
+        synchronized (WARMUP) {
+            json.put("warmup", toJson(WARMUP));
+        }
+        synchronized (FIRST) {
+            json.put("firstMission", toJson(FIRST));
+        }
+        return json;
+    }
+
+    /**
+     * 以类别名称为键转为json对象
+     *
+     * @param map 各类别的统计信息
+     * @return json对象
+     */
+    private static JSONObject toJson(final Map<DocumentType, JSONObject> map) {
+        JSONObject json = new JSONObject(true);
+        map.forEach((documentType, value) -> json.put(documentType.name(), value));
+        return json;
+    }
+
+    /**
+     * 获取JVM已运行的时间
+     *
+     * @return 毫秒
+     */
+    private static long uptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    /**
+     * 在内存中生成示例文档(包含中文、表格等常见内容), 不需要在项目中附带二进制文件
+     *
+     * @param documentType 文档类别
+     * @return 文档内容
+     * @throws Exception 生成失败
+     */
+    private static byte[] sample(final DocumentType documentType) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        switch (documentType) {
+            case WORD:
+                com.aspose.words.Document document = new com.aspose.words.Document();
+                com.aspose.words.DocumentBuilder builder = new com.aspose.words.DocumentBuilder(document);
+                builder.writeln("文档转换预热 Converter warm-up");
+                builder.startTable();
+                for (int row = 0; row < 10; row++) {
+                    for (int column = 0; column < 4; column++) {
+                        builder.insertCell();
+                        builder.write("单元格 " + row + "-" + column);
+                    }
+                    builder.endRow();
+                }
+                builder.endTable();
+                document.save(outputStream, com.aspose.words.SaveFormat.DOCX);
+                break;
+            case CELL:
+                com.aspose.cells.Workbook workbook = new com.aspose.cells.Workbook();
+                try {
+                    com.aspose.cells.Cells cells = workbook.getWorksheets().get(0).getCells();
+                    cells.get(0, 0).putValue("文档转换预热 Converter warm-up");
+                    for (int row = 1; row < 100; row++) {
+                        for (int column = 0; column < 6; column++) {
+                            cells.get(row, column).putValue(row * column);
+                        }
+                    }
+                    workbook.save(outputStream, com.aspose.cells.SaveFormat.XLSX);
+                } finally {
+                    workbook.dispose();
+                }
+                break;
+            default:
+                com.aspose.slides.Presentation presentation = new com.aspose.slides.Presentation();
+                try {
+                    presentation.getSlides().get_Item(0).getShapes()
+                            .addAutoShape(com.aspose.slides.ShapeType.Rectangle, 50, 50, 500, 100)
+                            .getTextFrame().setText("文档转换预热 Converter warm-up");
+                    presentation.save(outputStream, com.aspose.slides.SaveFormat.Pptx);
+                } finally {
+                    presentation.dispose();
+                }
+        }
+        return outputStream.toByteArray();
+    }
+}
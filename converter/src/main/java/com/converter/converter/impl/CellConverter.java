@@ -1,14 +1,62 @@
 package com.converter.converter.impl;
 
+import com.converter.constant.DocumentType;
 import com.converter.converter.AbstractConverter;
 import com.converter.exception.ConvertException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Cell转换类
+ * 可见工作表数和文件大小都超过阈值的文档按工作表分段: 每段加载一份工作簿, 隐藏段外的工作表后并行保存为PDF, 最后按工作表顺序合并
+ * 超过流式转换阈值的文档不加载整个工作簿, 由CellStreamConverter逐行转换
  *
  * @author Evan
  */
+@Slf4j
 public class CellConverter extends AbstractConverter {
+    /**
+     * 分段转换的最小可见工作表数, 0代表不分段
+     */
+    private static int splitSheets = 0;
+    /**
+     * 分段转换的最小文件大小(MB)
+     */
+    private static int splitMinSizeMb = 0;
+    /**
+     * 分段转换的并行数
+     */
+    private static int splitThreads = 1;
+    /**
+     * 分段转换线程池
+     */
+    private static ExecutorService splitExecutor = null;
+    /**
+     * 流式转换的最小文件大小(MB), 0代表不使用流式转换
+     */
+    private static int streamMinSizeMb = 0;
+    /**
+     * 流式转换每段的行数
+     */
+    private static int streamChunkRows = 20000;
+    /**
+     * 流式转换CSV/TSV的编码, 为空时自动检测
+     */
+    private static String streamCharset = "";
+    /**
+     * 正在进行的流式转换
+     */
+    private volatile CellStreamConverter streamConverter = null;
     /**
      * Workbook文档对象
      */
@@ -17,6 +65,88 @@ public class CellConverter extends AbstractConverter {
      * 中断监视器
      */
     private com.aspose.cells.InterruptMonitor monitor = null;
+    /**
+     * 分段的中断监视器
+     */
+    private final List<com.aspose.cells.InterruptMonitor> partMonitors = new CopyOnWriteArrayList<>();
+    /**
+     * 是否已中断, 用于还没有创建监视器的分段
+     */
+    private volatile boolean interrupted = false;
+
+    /**
+     * 设置分段转换参数
+     *
+     * @param sheets    最小可见工作表数, 0代表不分段
+     * @param minSizeMb 最小文件大小(MB)
+     * @param threads   并行数, 0代表使用CPU核数
+     */
+    public static synchronized void configure(final int sheets,
+                                              final int minSizeMb,
+                                              final int threads) {
+        splitSheets = sheets;
+        splitMinSizeMb = minSizeMb;
+        splitThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        if (splitExecutor != null) {
+            splitExecutor.shutdown();
+            splitExecutor = null;
+        }
+        if (splitSheets > 0 && splitThreads > 1) {
+            splitExecutor = PdfParts.newExecutor("cell-split-", splitThreads);
+        }
+    }
+
+    /**
+     * 设置流式转换参数
+     *
+     * @param minSizeMb 最小文件大小(MB), 0代表不使用流式转换
+     * @param chunkRows 每段的行数
+     * @param charset   CSV/TSV的编码, 为空时自动检测
+     */
+    public static synchronized void configureStreaming(final int minSizeMb,
+                                                       final int chunkRows,
+                                                       final String charset) {
+        streamMinSizeMb = minSizeMb;
+        streamChunkRows = Math.max(1, chunkRows);
+        streamCharset = charset == null ? "" : charset.trim();
+    }
+
+    /**
+     * 判断文件是否使用流式转换
+     *
+     * @param sourceFilePath 源文件路径
+     * @param fileSize       文件大小
+     * @return true代表使用流式转换
+     */
+    public static boolean isStreaming(final String sourceFilePath,
+                                      final long fileSize) {
+        return streamMinSizeMb > 0
+                && fileSize >= streamMinSizeMb * 1024L * 1024L
+                && CellStreamConverter.supports(sourceFilePath);
+    }
+
+    /**
+     * 获取流式转换每段的行数
+     *
+     * @return 行数
+     */
+    public static int getStreamChunkRows() {
+        return streamChunkRows;
+    }
+
+    /**
+     * 估算文档转换时的段数(每段重新加载一份工作簿), 用于内存准入控制
+     * 工作表数要在加载后才知道, 文件大小达到阈值时按最多的段数估算
+     *
+     * @param fileSize 文件大小
+     * @return 段数
+     */
+    public static int expectedParts(final long fileSize) {
+        if (splitExecutor == null || fileSize < splitMinSizeMb * 1024L * 1024L) {
+            return 1;
+        }
+        return splitThreads;
+    }
 
     /**
      * 转换Cell类型的文件
@@ -28,12 +158,29 @@ public class CellConverter extends AbstractConverter {
     public void convert(final String sourceFilePath,
                         final String targetFilePath) {
         try {
+            if (isStreaming(sourceFilePath, new File(sourceFilePath).length())) {
+                convertStreaming(sourceFilePath, targetFilePath);
+                return;
+            }
             // 创建中断监视器
             monitor = new com.aspose.cells.InterruptMonitor();
             // 创建Workbook文档对象
             workbook = new com.aspose.cells.Workbook(sourceFilePath, getCellLoadOptions());
             // 设置中断
             workbook.setInterruptMonitor(monitor);
+            List<List<Integer>> parts = splitSheets(workbook, new File(sourceFilePath).length());
+            if (parts.size() > 1) {
+                // 其余各段同样占用位置, 位置不足时合并为更少的段
+                int extra = acquireSlots(DocumentType.CELL, parts.size() - 1);
+                try {
+                    if (extra > 0) {
+                        convertParts(sourceFilePath, targetFilePath, regroup(parts, extra + 1));
+                        return;
+                    }
+                } finally {
+                    releaseSlots(DocumentType.CELL, extra);
+                }
+            }
             // 开始文档转换
             workbook.save(targetFilePath, getCellToPdfOptions());
         } catch (Exception e) {
@@ -47,14 +194,236 @@ public class CellConverter extends AbstractConverter {
         }
     }
 
+    /**
+     * 从输入流转换Cell文档
+     *
+     * @param inputStream  源文档
+     * @param outputStream PDF输出
+     */
+    @Override
+    public void convert(final InputStream inputStream,
+                        final OutputStream outputStream) {
+        try {
+            monitor = new com.aspose.cells.InterruptMonitor();
+            workbook = new com.aspose.cells.Workbook(inputStream, getCellLoadOptions());
+            workbook.setInterruptMonitor(monitor);
+            workbook.save(outputStream, getCellToPdfOptions());
+        } catch (Exception e) {
+            throw new ConvertException.CellConvertException(e);
+        } finally {
+            if (workbook != null) {
+                workbook.dispose();
+                workbook = null;
+            }
+        }
+    }
+
     /**
      * 中断任务
      */
     @Override
     public void interrupt() {
+        interrupted = true;
+        CellStreamConverter current = streamConverter;
+        if (current != null) {
+            current.interrupt();
+        }
         if (monitor != null) {
             monitor.interrupt();
             monitor = null;
         }
+        partMonitors.forEach(com.aspose.cells.InterruptMonitor::interrupt);
+    }
+
+    /**
+     * 流式转换
+     *
+     * @param sourceFilePath 源文件路径
+     * @param targetFilePath 目的路径
+     * @throws Exception 转换失败
+     */
+    private void convertStreaming(final String sourceFilePath,
+                                  final String targetFilePath) throws Exception {
+        streamConverter = new CellStreamConverter(streamChunkRows, streamCharset);
+        try {
+            if (interrupted) {
+                throw new InterruptedException("转换已中断");
+            }
+            streamConverter.convert(sourceFilePath, targetFilePath);
+        } finally {
+            streamConverter = null;
+        }
+    }
+
+    /**
+     * 把可见工作表按顺序分为若干段, 每段工作表数尽量相同
+     * 页眉页脚中有页码或总页数的工作簿不分段: 各段单独保存时页码会从1开始, 与单线程转换的结果不同
+     *
+     * @param workbook 工作簿
+     * @param fileSize 文件大小
+     * @return 每段包含的工作表下标, 只有一段代表不分段
+     */
+    static List<List<Integer>> splitSheets(final com.aspose.cells.Workbook workbook,
+                                           final long fileSize) {
+        List<List<Integer>> parts = new ArrayList<>();
+        com.aspose.cells.WorksheetCollection worksheets = workbook.getWorksheets();
+        List<Integer> visible = new ArrayList<>();
+        for (int i = 0; i < worksheets.getCount(); i++) {
+            // 隐藏的工作表在单线程转换时同样不输出
+            if (worksheets.get(i).isVisible()) {
+                visible.add(i);
+            }
+        }
+        if (splitExecutor == null || fileSize < splitMinSizeMb * 1024L * 1024L || visible.size() < splitSheets
+                || hasPageNumbers(worksheets, visible)) {
+            parts.add(visible);
+            return parts;
+        }
+        int partCount = Math.min(splitThreads, visible.size());
+        for (int i = 0; i < partCount; i++) {
+            int from = visible.size() * i / partCount;
+            int to = visible.size() * (i + 1) / partCount;
+            parts.add(new ArrayList<>(visible.subList(from, to)));
+        }
+        return parts;
+    }
+
+    /**
+     * 把已分好的段按顺序重新合并为指定段数, 每段工作表数尽量相同
+     *
+     * @param parts     每段包含的工作表下标
+     * @param partCount 段数
+     * @return 合并后每段包含的工作表下标
+     */
+    static List<List<Integer>> regroup(final List<List<Integer>> parts,
+                                       final int partCount) {
+        if (partCount >= parts.size()) {
+            return parts;
+        }
+        List<Integer> sheets = new ArrayList<>();
+        parts.forEach(sheets::addAll);
+        List<List<Integer>> regrouped = new ArrayList<>(partCount);
+        for (int i = 0; i < partCount; i++) {
+            int from = sheets.size() * i / partCount;
+            int to = sheets.size() * (i + 1) / partCount;
+            regrouped.add(new ArrayList<>(sheets.subList(from, to)));
+        }
+        return regrouped;
+    }
+
+    /**
+     * 判断工作表的页眉页脚中是否有页码(&P)或总页数(&N)
+     *
+     * @param worksheets 工作表
+     * @param indexes    要检查的工作表下标
+     * @return true代表有
+     */
+    static boolean hasPageNumbers(final com.aspose.cells.WorksheetCollection worksheets,
+                                  final List<Integer> indexes) {
+        for (int index : indexes) {
+            com.aspose.cells.PageSetup pageSetup = worksheets.get(index).getPageSetup();
+            // 0~2分别为左、中、右
+            for (int section = 0; section < 3; section++) {
+                if (hasPageNumber(pageSetup.getHeader(section)) || hasPageNumber(pageSetup.getFooter(section))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 判断页眉页脚脚本中是否有页码或总页数, "&&"是转义的&
+     *
+     * @param script 页眉页脚脚本
+     * @return true代表有
+     */
+    private static boolean hasPageNumber(final String script) {
+        if (script == null) {
+            return false;
+        }
+        String text = script.replace("&&", "");
+        return text.contains("&P") || text.contains("&N");
+    }
+
+    /**
+     * 分段并行转换后合并, 第一段复用已加载的工作簿, 其余各段在自己的线程中重新加载
+     *
+     * @param sourceFilePath 源文件路径
+     * @param targetFilePath 目的路径
+     * @param parts          每段包含的工作表下标
+     * @throws Exception 转换或合并失败
+     */
+    private void convertParts(final String sourceFilePath,
+                              final String targetFilePath,
+                              final List<List<Integer>> parts) throws Exception {
+        Path dir = Files.createTempDirectory("cell-split-");
+        List<Future<?>> futures = new ArrayList<>(parts.size());
+        List<File> files = new ArrayList<>(parts.size());
+        long start = System.currentTimeMillis();
+        try {
+            for (int i = 1; i < parts.size(); i++) {
+                List<Integer> sheets = parts.get(i);
+                File file = dir.resolve(i + ".pdf").toFile();
+                futures.add(splitExecutor.submit(() -> {
+                    savePart(null, sourceFilePath, sheets, file);
+                    return null;
+                }));
+            }
+            File first = dir.resolve("0.pdf").toFile();
+            savePart(workbook, sourceFilePath, parts.get(0), first);
+            files.add(first);
+            for (int i = 1; i < parts.size(); i++) {
+                futures.get(i - 1).get();
+                files.add(dir.resolve(i + ".pdf").toFile());
+            }
+            PdfParts.merge(files, targetFilePath);
+            log.info("分段转换完成, 共{}段, 耗时{}ms[{}]", parts.size(),
+                    System.currentTimeMillis() - start, targetFilePath);
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+            partMonitors.clear();
+            PdfParts.deleteDir(dir);
+        }
+    }
+
+    /**
+     * 隐藏段外的可见工作表后保存, 工作表的页面设置不变, 因此每段的输出与单线程转换的对应页相同
+     *
+     * @param loaded         已加载的工作簿, 为null时重新加载
+     * @param sourceFilePath 源文件路径
+     * @param sheets         本段的工作表下标
+     * @param file           输出文件
+     * @throws Exception 转换失败
+     */
+    private void savePart(final com.aspose.cells.Workbook loaded,
+                          final String sourceFilePath,
+                          final List<Integer> sheets,
+                          final File file) throws Exception {
+        com.aspose.cells.Workbook part = loaded;
+        try {
+            if (part == null) {
+                com.aspose.cells.InterruptMonitor partMonitor = new com.aspose.cells.InterruptMonitor();
+                partMonitors.add(partMonitor);
+                if (interrupted) {
+                    throw new InterruptedException("转换已中断");
+                }
+                part = new com.aspose.cells.Workbook(sourceFilePath, getCellLoadOptions());
+                part.setInterruptMonitor(partMonitor);
+            }
+            com.aspose.cells.WorksheetCollection worksheets = part.getWorksheets();
+            // 活动工作表不能隐藏, 先切换到本段的第一个工作表
+            worksheets.setActiveSheetIndex(sheets.get(0));
+            for (int i = 0; i < worksheets.getCount(); i++) {
+                if (!sheets.contains(i)) {
+                    worksheets.get(i).setVisible(false);
+                }
+            }
+            part.save(file.getAbsolutePath(), getCellToPdfOptions());
+        } finally {
+            if (loaded == null && part != null) {
+                part.dispose();
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,463 @@
+package com.converter.converter.impl;
+
+import com.converter.converter.AbstractConverter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 超大表格的流式转换, 峰值内存只与每段的行数有关, 与文件总行数无关
+ * XLSX/XLSM/XLS通过LightCells在加载时逐个单元格回调, 单元格不保留在工作簿中; CSV/TSV逐行读取(自动检测编码)
+ * 读到的行依次写入一个小工作簿, 每满chunkRows行保存为一段PDF并重新开始, 最后按顺序合并
+ * 只输出单元格显示的文本, 不保留样式、合并单元格和图片; 每段重复工作表的第一行作为标题行
+ *
+ * @author Evan
+ */
+@Slf4j
+final class CellStreamConverter {
+    /**
+     * 自动检测编码时读取的字节数
+     */
+    private static final int DETECT_BYTES = 64 * 1024;
+    /**
+     * 不是UTF-8时使用的编码, Excel在中文系统上导出的CSV为GBK
+     */
+    private static final String FALLBACK_CHARSET = "GBK";
+    /**
+     * 每段的行数
+     */
+    private final int chunkRows;
+    /**
+     * CSV/TSV的编码, 为空时自动检测
+     */
+    private final String charsetName;
+    /**
+     * 临时目录
+     */
+    private final Path dir;
+    /**
+     * 已保存的各段
+     */
+    private final List<File> files = new ArrayList<>();
+    /**
+     * 当前段的工作簿
+     */
+    private com.aspose.cells.Workbook chunk = null;
+    /**
+     * 当前工作表名
+     */
+    private String sheetName = null;
+    /**
+     * 当前工作表的第一行
+     */
+    private List<String> header = null;
+    /**
+     * 当前段已写入的行数
+     */
+    private int rows = 0;
+    /**
+     * 读取的总行数
+     */
+    private long totalRows = 0;
+    /**
+     * 当前段保存时使用的中断监视器
+     */
+    private volatile com.aspose.cells.InterruptMonitor monitor = null;
+    /**
+     * 是否已中断
+     */
+    private volatile boolean interrupted = false;
+
+    CellStreamConverter(final int chunkRows,
+                        final String charsetName) throws IOException {
+        this.chunkRows = chunkRows;
+        this.charsetName = charsetName;
+        this.dir = Files.createTempDirectory("cell-stream-");
+    }
+
+    /**
+     * 判断文件类型是否支持流式转换
+     *
+     * @param sourceFilePath 源文件路径
+     * @return true代表支持
+     */
+    static boolean supports(final String sourceFilePath) {
+        String extension = extension(sourceFilePath);
+        switch (extension) {
+            case "XLSX":
+            case "XLSM":
+            case "XLS":
+            case "CSV":
+            case "TSV":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 流式转换
+     *
+     * @param sourceFilePath 源文件路径
+     * @param targetFilePath 目的路径
+     * @throws Exception 转换失败
+     */
+    void convert(final String sourceFilePath,
+                 final String targetFilePath) throws Exception {
+        long start = System.currentTimeMillis();
+        try {
+            String extension = extension(sourceFilePath);
+            if ("CSV".equals(extension) || "TSV".equals(extension)) {
+                readDelimited(sourceFilePath, "TSV".equals(extension) ? '\t' : ',');
+            } else {
+                readWorkbook(sourceFilePath);
+            }
+            flush();
+            PdfParts.merge(files, targetFilePath);
+            log.info("流式转换完成, 共{}行, 分为{}段, 耗时{}ms[{}]", totalRows, files.size(),
+                    System.currentTimeMillis() - start, targetFilePath);
+        } finally {
+            if (chunk != null) {
+                chunk.dispose();
+                chunk = null;
+            }
+            PdfParts.deleteDir(dir);
+        }
+    }
+
+    /**
+     * 中断转换
+     */
+    void interrupt() {
+        interrupted = true;
+        com.aspose.cells.InterruptMonitor current = monitor;
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    /**
+     * 通过LightCells读取工作簿, 处理完的单元格不保留
+     *
+     * @param sourceFilePath 源文件路径
+     * @throws Exception 读取失败
+     */
+    private void readWorkbook(final String sourceFilePath) throws Exception {
+        com.aspose.cells.LoadOptions loadOptions = new com.aspose.cells.LoadOptions();
+        loadOptions.setMemorySetting(com.aspose.cells.MemorySetting.MEMORY_PREFERENCE);
+        RowHandler handler = new RowHandler();
+        loadOptions.setLightCellsDataHandler(handler);
+        com.aspose.cells.Workbook workbook = new com.aspose.cells.Workbook(sourceFilePath, loadOptions);
+        workbook.dispose();
+        // LightCells没有行结束和工作表结束的回调, 最后一行在加载返回后写入
+        handler.endRow();
+    }
+
+    /**
+     * 逐行读取CSV/TSV
+     *
+     * @param sourceFilePath 源文件路径
+     * @param delimiter      分隔符
+     * @throws IOException 读取失败
+     */
+    private void readDelimited(final String sourceFilePath,
+                               final char delimiter) throws IOException {
+        startSheetInternal(new File(sourceFilePath).getName());
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(Paths.get(sourceFilePath)));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream,
+                     decoder(inputStream, charsetName)))) {
+            parseDelimited(reader, delimiter, this::addRow);
+        }
+    }
+
+    /**
+     * 解析CSV/TSV, 支持引号包围的字段(包括字段中的换行和两个引号表示的引号)
+     *
+     * @param reader    输入
+     * @param delimiter 分隔符
+     * @param consumer  依次接收每一行
+     * @throws IOException 读取失败
+     */
+    static void parseDelimited(final BufferedReader reader,
+                               final char delimiter,
+                               final Consumer<List<String>> consumer) throws IOException {
+        List<String> row = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == delimiter) {
+                    row.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (quoted) {
+                field.append('\n');
+                continue;
+            }
+            row.add(field.toString());
+            field.setLength(0);
+            consumer.accept(row);
+            row = new ArrayList<>();
+        }
+        if (quoted || field.length() > 0) {
+            row.add(field.toString());
+            consumer.accept(row);
+        }
+    }
+
+    /**
+     * 确定CSV/TSV的编码并跳过BOM
+     * 没有配置编码时: 有BOM按BOM, 开头部分是合法的UTF-8按UTF-8, 否则按GBK(不支持时使用系统默认编码)
+     * 无法解码的字节替换为替换字符, 不中断转换
+     *
+     * @param inputStream 支持mark的输入流
+     * @param charsetName 配置的编码, 为空时自动检测
+     * @return 解码器
+     * @throws IOException 读取失败
+     */
+    static CharsetDecoder decoder(final InputStream inputStream,
+                                  final String charsetName) throws IOException {
+        inputStream.mark(DETECT_BYTES);
+        byte[] head = new byte[DETECT_BYTES];
+        int length = 0;
+        int read;
+        while (length < head.length && (read = inputStream.read(head, length, head.length - length)) > 0) {
+            length += read;
+        }
+        inputStream.reset();
+        Charset charset;
+        int bom = 0;
+        if (length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+            charset = StandardCharsets.UTF_8;
+            bom = 3;
+        } else if (length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE) {
+            charset = StandardCharsets.UTF_16LE;
+            bom = 2;
+        } else if (length >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF) {
+            charset = StandardCharsets.UTF_16BE;
+            bom = 2;
+        } else if (charsetName != null && !charsetName.isEmpty()) {
+            charset = Charset.forName(charsetName);
+        } else if (isUtf8(head, length)) {
+            charset = StandardCharsets.UTF_8;
+        } else {
+            charset = Charset.isSupported(FALLBACK_CHARSET) ? Charset.forName(FALLBACK_CHARSET) : Charset.defaultCharset();
+        }
+        if (bom > 0 && inputStream.skip(bom) != bom) {
+            throw new IOException("跳过BOM失败");
+        }
+        log.debug("CSV编码: {}", charset);
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * 判断字节是否为合法的UTF-8, 末尾被截断的字符不算错误
+     *
+     * @param bytes  字节
+     * @param length 长度
+     * @return true代表合法
+     */
+    private static boolean isUtf8(final byte[] bytes,
+                                  final int length) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CoderResult result = decoder.decode(ByteBuffer.wrap(bytes, 0, length), CharBuffer.allocate(length), false);
+        return !result.isError();
+    }
+
+    /**
+     * 开始新的工作表, 每个工作表从新的一段开始
+     *
+     * @param name 工作表名
+     */
+    private void startSheetInternal(final String name) {
+        flush();
+        sheetName = name;
+        header = null;
+    }
+
+    /**
+     * 写入一行, 满chunkRows行后保存当前段
+     *
+     * @param row 行
+     */
+    private void addRow(final List<String> row) {
+        if (interrupted) {
+            throw new IllegalStateException("转换已中断");
+        }
+        totalRows++;
+        if (header == null) {
+            header = row;
+        }
+        if (chunk == null) {
+            chunk = new com.aspose.cells.Workbook();
+            com.aspose.cells.Worksheet worksheet = chunk.getWorksheets().get(0);
+            try {
+                worksheet.setName(sheetName);
+            } catch (Exception e) {
+                // 名称不合法时使用默认名称
+                log.debug("工作表名{}不可用", sheetName);
+            }
+            rows = 0;
+            if (row != header) {
+                writeRow(header);
+            }
+            worksheet.getPageSetup().setPrintTitleRows("$1:$1");
+        }
+        writeRow(row);
+        if (rows >= chunkRows) {
+            flush();
+        }
+    }
+
+    /**
+     * 把一行写入当前段的工作簿
+     *
+     * @param row 行
+     */
+    private void writeRow(final List<String> row) {
+        com.aspose.cells.Cells cells = chunk.getWorksheets().get(0).getCells();
+        for (int i = 0; i < row.size(); i++) {
+            if (!row.get(i).isEmpty()) {
+                cells.get(rows, i).putValue(row.get(i));
+            }
+        }
+        rows++;
+    }
+
+    /**
+     * 保存当前段
+     */
+    private void flush() {
+        if (chunk == null) {
+            return;
+        }
+        try {
+            monitor = new com.aspose.cells.InterruptMonitor();
+            chunk.setInterruptMonitor(monitor);
+            File file = dir.resolve(files.size() + ".pdf").toFile();
+            chunk.save(file.getAbsolutePath(), AbstractConverter.getCellToPdfOptions());
+            files.add(file);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            monitor = null;
+            chunk.dispose();
+            chunk = null;
+        }
+    }
+
+    /**
+     * 获取读取的总行数
+     *
+     * @return 行数
+     */
+    long getTotalRows() {
+        return totalRows;
+    }
+
+    /**
+     * 获取大写的文件扩展名
+     *
+     * @param filePath 文件路径
+     * @return 扩展名
+     */
+    private static String extension(final String filePath) {
+        int index = filePath.lastIndexOf('.');
+        return index < 0 ? "" : filePath.substring(index + 1).toUpperCase();
+    }
+
+    /**
+     * LightCells回调, 按行收集单元格的显示文本
+     * 开始新行或新工作表时写入上一行, 最后一行需要在加载结束后调用endRow写入
+     */
+    private final class RowHandler implements com.aspose.cells.LightCellsDataHandler {
+        /**
+         * 当前行的单元格
+         */
+        private final List<String> row = new ArrayList<>();
+
+        @Override
+        public boolean startSheet(final com.aspose.cells.Worksheet worksheet) {
+            endRow();
+            if (!worksheet.isVisible()) {
+                return false;
+            }
+            startSheetInternal(worksheet.getName());
+            return true;
+        }
+
+        @Override
+        public boolean startRow(final int rowIndex) {
+            endRow();
+            return true;
+        }
+
+        @Override
+        public boolean processRow(final com.aspose.cells.Row r) {
+            return true;
+        }
+
+        @Override
+        public boolean startCell(final int columnIndex) {
+            while (row.size() < columnIndex) {
+                row.add("");
+            }
+            return true;
+        }
+
+        @Override
+        public boolean processCell(final com.aspose.cells.Cell cell) {
+            row.add(cell.getStringValue());
+            // 返回false代表不把单元格保留在工作簿中
+            return false;
+        }
+
+        /**
+         * 上一行读取结束, 写入当前段
+         */
+        public void endRow() {
+            if (!row.isEmpty()) {
+                addRow(new ArrayList<>(row));
+                row.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.converter.converter.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 分段并行转换的公共方法: 创建线程池、按顺序合并各段PDF、清理临时目录
+ *
+ * @author Evan
+ */
+@Slf4j
+final class PdfParts {
+    private PdfParts() {
+    }
+
+    /**
+     * 创建分段转换线程池
+     *
+     * @param prefix  线程名前缀
+     * @param threads 线程数
+     * @return 线程池
+     */
+    static ExecutorService newExecutor(final String prefix,
+                                       final int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 按顺序合并PDF, 使用临时文件作为缓冲, 内存占用与文档大小无关
+     *
+     * @param files          各段PDF
+     * @param targetFilePath 目的路径
+     * @throws IOException 合并失败
+     */
+    static void merge(final List<File> files,
+                      final String targetFilePath) throws IOException {
+        PDFMergerUtility merger = new PDFMergerUtility();
+        for (File file : files) {
+            merger.addSource(file);
+        }
+        merger.setDestinationFileName(targetFilePath);
+        merger.mergeDocuments(MemoryUsageSetting.setupTempFileOnly());
+    }
+
+    /**
+     * 删除临时目录
+     *
+     * @param dir 目录
+     */
+    static void deleteDir(final Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            log.warn("删除临时目录{}失败", dir, e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.converter.converter.impl;
+
+import com.converter.constant.DocumentType;
+import com.converter.converter.AbstractConverter;
+import com.converter.exception.ConvertException;
+import com.converter.worker.WorkerPool;
+import com.converter.worker.WorkerProcess;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 转换进程转换类, 把转换交给WorkerPool中的子进程执行
+ *
+ * @author Evan
+ */
+public class RemoteConverter extends AbstractConverter {
+    /**
+     * 文档类别
+     */
+    private final DocumentType documentType;
+    /**
+     * 源文件后缀, 同步转换写临时文件时使用
+     */
+    private final String extension;
+    /**
+     * 正在使用的转换进程
+     */
+    private volatile WorkerProcess worker = null;
+
+    public RemoteConverter(final DocumentType documentType,
+                           final String extension) {
+        this.documentType = documentType;
+        this.extension = extension;
+    }
+
+    /**
+     * 在转换进程中转换文件
+     *
+     * @param sourceFilePath 源文件路径
+     * @param targetFilePath 目的路径
+     */
+    @Override
+    public void convert(final String sourceFilePath,
+                        final String targetFilePath) {
+        WorkerProcess current;
+        try {
+            current = WorkerPool.borrow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConvertException.WorkerException(e);
+        }
+        worker = current;
+        try {
+            current.convert(documentType.name(), sourceFilePath, targetFilePath);
+        } finally {
+            worker = null;
+            WorkerPool.giveBack(current);
+        }
+    }
+
+    /**
+     * 同步转换, 转换进程只接受文件路径, 因此先把输入写入临时文件, 转换后再读回输出流
+     *
+     * @param inputStream  源文档
+     * @param outputStream PDF输出
+     */
+    @Override
+    public void convert(final InputStream inputStream,
+                        final OutputStream outputStream) {
+        Path source = null;
+        Path target = null;
+        try {
+            // 保留原后缀, 部分格式按后缀识别
+            source = Files.createTempFile("convert-", "." + extension);
+            target = Files.createTempFile("convert-", ".pdf");
+            Files.copy(inputStream, source, StandardCopyOption.REPLACE_EXISTING);
+            convert(source.toString(), target.toString());
+            Files.copy(target, outputStream);
+        } catch (IOException e) {
+            throw new ConvertException.WorkerException(e);
+        } finally {
+            deleteQuietly(source);
+            deleteQuietly(target);
+        }
+    }
+
+    /**
+     * 删除临时文件
+     *
+     * @param path 文件路径, 可以为null
+     */
+    private static void deleteQuietly(final Path path) {
+        try {
+            if (path != null) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException ignored) {
+            // 临时文件删除失败不影响结果
+        }
+    }
+
+    /**
+     * 中断任务, 直接结束转换进程, 归还时会被替换
+     */
+    @Override
+    public void interrupt() {
+        WorkerProcess current = worker;
+        if (current != null) {
+            current.destroy();
+        }
+    }
+}
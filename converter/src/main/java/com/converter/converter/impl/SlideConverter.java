@@ -3,6 +3,9 @@ package com.converter.converter.impl;
 import com.converter.converter.AbstractConverter;
 import com.converter.exception.ConvertException;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
  * Slide转换类
  *
@@ -49,6 +52,31 @@ public class SlideConverter extends AbstractConverter {
         }
     }
 
+    /**
+     * 从输入流转换Slide文档
+     *
+     * @param inputStream  源文档
+     * @param outputStream PDF输出
+     */
+    @Override
+    public void convert(final InputStream inputStream,
+                        final OutputStream outputStream) {
+        try {
+            monitor = new com.aspose.slides.InterruptionTokenSource();
+            com.aspose.slides.LoadOptions loadOptions = new com.aspose.slides.LoadOptions();
+            loadOptions.setInterruptionToken(monitor.getToken());
+            presentation = new com.aspose.slides.Presentation(inputStream, loadOptions);
+            presentation.save(outputStream, com.aspose.slides.SaveFormat.Pdf, getSlideToPdfOptions());
+        } catch (Exception e) {
+            throw new ConvertException.SlideConvertException(e);
+        } finally {
+            if (presentation != null) {
+                presentation.dispose();
+                presentation = null;
+            }
+        }
+    }
+
     /**
      * 中断任务
      */
@@ -1,14 +1,90 @@
 package com.converter.converter.impl;
 
+import com.converter.constant.DocumentType;
 import com.converter.converter.AbstractConverter;
 import com.converter.exception.ConvertException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Word转换类
+ * 页数和文件大小都超过阈值的文档分段转换: 排版一次得到总页数, 按页码范围分成几段并行保存为PDF, 最后合并
+ * 第一段复用已排版的文档, 其余各段各自从源文件加载, 每段只排版一次
  *
  * @author Evan
  */
+@Slf4j
 public class WordConverter extends AbstractConverter {
+    /**
+     * 每段至少包含的页数, 段太小时重复加载排版的开销超过并行的收益
+     */
+    private static final int MIN_PAGES_PER_PART = 50;
+    /**
+     * 分段转换的最小页数, 0代表不分段
+     */
+    private static int splitPages = 0;
+    /**
+     * 分段转换的最小文件大小(MB), 小文件不排版检查页数
+     */
+    private static int splitMinSizeMb = 0;
+    /**
+     * 分段转换的并行数
+     */
+    private static int splitThreads = 1;
+    /**
+     * 分段转换线程池
+     */
+    private static ExecutorService splitExecutor = null;
+    /**
+     * 正在执行的分段, 用于中断
+     */
+    private volatile List<Future<?>> parts = null;
+
+    /**
+     * 设置分段转换参数
+     *
+     * @param pages     最小页数, 0代表不分段
+     * @param minSizeMb 最小文件大小(MB)
+     * @param threads   并行数, 0代表使用CPU核数
+     */
+    public static synchronized void configure(final int pages,
+                                              final int minSizeMb,
+                                              final int threads) {
+        splitPages = pages;
+        splitMinSizeMb = minSizeMb;
+        splitThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        if (splitExecutor != null) {
+            splitExecutor.shutdown();
+            splitExecutor = null;
+        }
+        if (splitPages > 0 && splitThreads > 1) {
+            splitExecutor = PdfParts.newExecutor("word-split-", splitThreads);
+        }
+    }
+
+    /**
+     * 估算文档转换时的段数(每段加载一份文档), 用于内存准入控制
+     * 页数要在加载后才知道, 文件大小达到阈值时按最多的段数估算
+     *
+     * @param fileSize 文件大小
+     * @return 段数
+     */
+    public static int expectedParts(final long fileSize) {
+        if (splitExecutor == null || fileSize < splitMinSizeMb * 1024L * 1024L) {
+            return 1;
+        }
+        return splitThreads;
+    }
+
     /**
      * 转换Word类型的文件
      *
@@ -21,6 +97,19 @@ public class WordConverter extends AbstractConverter {
         try {
             // 创建Document文档对象
             com.aspose.words.Document document = new com.aspose.words.Document(sourceFilePath);
+            int partCount = partCount(document, new File(sourceFilePath).length());
+            if (partCount > 1) {
+                // 其余各段占用空闲的转换位置, 没有空位时段数减少, 都没有时整篇转换
+                int extra = acquireSlots(DocumentType.WORD, partCount - 1);
+                try {
+                    if (extra > 0) {
+                        convertParts(document, sourceFilePath, targetFilePath, extra + 1);
+                        return;
+                    }
+                } finally {
+                    releaseSlots(DocumentType.WORD, extra);
+                }
+            }
             // 开始文档转换
             document.save(targetFilePath, getWordToPdfOptions());
         } catch (Exception e) {
@@ -29,10 +118,102 @@ public class WordConverter extends AbstractConverter {
     }
 
     /**
-     * 中断任务
+     * 从输入流转换Word文档
+     *
+     * @param inputStream  源文档
+     * @param outputStream PDF输出
+     */
+    @Override
+    public void convert(final InputStream inputStream,
+                        final OutputStream outputStream) {
+        try {
+            com.aspose.words.Document document = new com.aspose.words.Document(inputStream);
+            document.save(outputStream, getWordToPdfOptions());
+        } catch (Exception e) {
+            throw new ConvertException.WordConvertException(e);
+        }
+    }
+
+    /**
+     * 中断任务, Aspose.Words暂时没有提供中断方法, 只能取消还没有完成的分段
      */
     @Override
     public void interrupt() {
-        // Aspose.Words暂时没有提供中断方法
+        List<Future<?>> current = parts;
+        if (current != null) {
+            current.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * 计算分段数
+     *
+     * @param document 文档
+     * @param fileSize 文件大小
+     * @return 分段数, 1代表不分段
+     * @throws Exception 排版失败
+     */
+    static int partCount(final com.aspose.words.Document document,
+                         final long fileSize) throws Exception {
+        if (splitExecutor == null || fileSize < splitMinSizeMb * 1024L * 1024L) {
+            return 1;
+        }
+        // 文件大小未达到阈值时已经返回, 不为检查页数排版
+        // 获取页数需要排版, 排版结果会被之后的保存(整篇或第一段)复用
+        int pageCount = document.getPageCount();
+        if (pageCount < splitPages) {
+            return 1;
+        }
+        return Math.max(1, Math.min(splitThreads, pageCount / MIN_PAGES_PER_PART));
+    }
+
+    /**
+     * 分段并行转换后合并
+     * 深拷贝不保留排版结果, 从副本保存会重新排版整篇文档, 因此只有第一段使用已排版的文档,
+     * 其余各段在各自线程中从源文件加载, 保存时排版一次
+     *
+     * @param document       已排版的文档
+     * @param sourceFilePath 源文件路径
+     * @param targetFilePath 目的路径
+     * @param partCount      分段数
+     * @throws Exception 转换或合并失败
+     */
+    void convertParts(final com.aspose.words.Document document,
+                      final String sourceFilePath,
+                      final String targetFilePath,
+                      final int partCount) throws Exception {
+        int pageCount = document.getPageCount();
+        int pagesPerPart = (pageCount + partCount - 1) / partCount;
+        Path dir = Files.createTempDirectory("word-split-");
+        List<Future<?>> futures = new ArrayList<>(partCount);
+        List<File> files = new ArrayList<>(partCount);
+        long start = System.currentTimeMillis();
+        try {
+            for (int from = 0; from < pageCount; from += pagesPerPart) {
+                // Document不是线程安全的, 每段使用自己的文档对象
+                boolean first = from == 0;
+                com.aspose.words.PdfSaveOptions options = newWordToPdfOptions();
+                options.setPageIndex(from);
+                options.setPageCount(Math.min(pagesPerPart, pageCount - from));
+                File file = dir.resolve(files.size() + ".pdf").toFile();
+                files.add(file);
+                futures.add(splitExecutor.submit(() -> {
+                    com.aspose.words.Document part = first ? document : new com.aspose.words.Document(sourceFilePath);
+                    part.save(file.getAbsolutePath(), options);
+                    return null;
+                }));
+            }
+            parts = futures;
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            PdfParts.merge(files, targetFilePath);
+            log.info("分段转换完成, 共{}页, 分为{}段, 耗时{}ms[{}]", pageCount, files.size(),
+                    System.currentTimeMillis() - start, targetFilePath);
+        } finally {
+            parts = null;
+            futures.forEach(future -> future.cancel(true));
+            PdfParts.deleteDir(dir);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,215 @@
+package com.converter.core;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.converter.config.CustomizeConfig;
+import com.converter.constant.ConvertStatus;
+import com.converter.pojo.ConvertInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 任务变更记录, 每次任务状态变化分配一个递增的版本号
+ * 客户端带上次拿到的版本号轮询, 只返回之后变化的任务, 代替原来的全局modify标记(多个客户端轮询时会互相清掉标记)
+ * 每个任务只保留最新的一条记录, 记录总数超过change-feed-capacity时丢弃最旧的, 版本号早于丢弃位置的客户端需要重新加载全部任务
+ *
+ * @author Evan
+ */
+public final class ChangeFeed {
+    /**
+     * 转换信息 -> 任务id, 只有通过ConvertManager创建的任务才有记录(从数据库加载的历史任务不会再变化)
+     */
+    private static final Map<ConvertInfo, Integer> IDS = new IdentityHashMap<>();
+    /**
+     * 版本号 -> 任务id
+     */
+    private static final TreeMap<Long, Integer> LOG = new TreeMap<>();
+    /**
+     * 任务id -> 最新版本号
+     */
+    private static final Map<Integer, Long> LATEST = new HashMap<>();
+    /**
+     * 任务id -> 转换信息
+     */
+    private static final Map<Integer, ConvertInfo> INFOS = new HashMap<>();
+    /**
+     * 记录的变化次数(合并前)
+     */
+    private static final AtomicLong RECORDS = new AtomicLong();
+    /**
+     * 推送的消息数
+     */
+    private static final AtomicLong PUSHES = new AtomicLong();
+    /**
+     * 推送的任务变化数(合并后)
+     */
+    private static final AtomicLong PUSHED_CHANGES = new AtomicLong();
+    /**
+     * 当前版本号
+     */
+    private static long version = 0;
+    /**
+     * 已丢弃的最大版本号, 早于它的客户端需要重新加载
+     */
+    private static long floor = 0;
+
+    private ChangeFeed() {
+    }
+
+    /**
+     * 登记新任务
+     *
+     * @param missionId   任务id
+     * @param convertInfo 转换信息
+     */
+    static synchronized void register(final Integer missionId,
+                                      final ConvertInfo convertInfo) {
+        IDS.put(convertInfo, missionId);
+        INFOS.put(missionId, convertInfo);
+        record(convertInfo);
+    }
+
+    /**
+     * 记录任务变化
+     *
+     * @param convertInfo 转换信息
+     */
+    public static synchronized void record(final ConvertInfo convertInfo) {
+        Integer missionId = IDS.get(convertInfo);
+        if (missionId == null) {
+            return;
+        }
+        RECORDS.incrementAndGet();
+        Long old = LATEST.put(missionId, ++version);
+        if (old != null) {
+            LOG.remove(old);
+        }
+        LOG.put(version, missionId);
+        trim();
+    }
+
+    /**
+     * 超出容量时丢弃最旧的记录, 已结束任务的记录一并清理
+     */
+    private static void trim() {
+        int capacity = Math.max(1, CustomizeConfig.instance().getChangeFeedCapacity());
+        Iterator<Map.Entry<Long, Integer>> iterator = LOG.entrySet().iterator();
+        while (LOG.size() > capacity && iterator.hasNext()) {
+            Map.Entry<Long, Integer> entry = iterator.next();
+            iterator.remove();
+            floor = entry.getKey();
+            Integer missionId = entry.getValue();
+            LATEST.remove(missionId);
+            ConvertInfo convertInfo = INFOS.get(missionId);
+            if (convertInfo != null && isFinished(convertInfo.getStatus())) {
+                INFOS.remove(missionId);
+                IDS.remove(convertInfo);
+            }
+        }
+    }
+
+    /**
+     * 是否是已结束的状态
+     *
+     * @param status 状态
+     * @return true代表已结束
+     */
+    private static boolean isFinished(final ConvertStatus status) {
+        return status == ConvertStatus.FINISH || status == ConvertStatus.ERROR || status == ConvertStatus.CANCEL;
+    }
+
+    /**
+     * 记录一次推送
+     *
+     * @param changes 推送的任务变化数
+     */
+    public static void recordPush(final int changes) {
+        PUSHES.incrementAndGet();
+        PUSHED_CHANGES.addAndGet(changes);
+    }
+
+    /**
+     * 获取变更记录状态, records与pushedChanges的差值为合并掉的变化数
+     *
+     * @return json对象
+     */
+    public static JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        synchronized (ChangeFeed.class) {
+            json.put("version", version);
+            json.put("entries", LOG.size());
+        }
+        json.put("records", RECORDS.get());
+        json.put("pushes", PUSHES.get());
+        json.put("pushedChanges", PUSHED_CHANGES.get());
+        return json;
+    }
+
+    /**
+     * 获取当前版本号
+     *
+     * @return 版本号
+     */
+    public static synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * 获取指定版本之后变化的任务
+     *
+     * @param since 客户端已有的版本号
+     * @param limit 最多返回的任务数
+     * @return json对象: version当前版本, next下次请求使用的版本号, more是否还有更多, reset是否需要重新加载全部任务, changes变化的任务
+     */
+    public static JSONObject changesSince(final long since,
+                                          final int limit) {
+        List<Long> seqs = new ArrayList<>();
+        List<Integer> missionIds = new ArrayList<>();
+        List<ConvertInfo> convertInfos = new ArrayList<>();
+        long current;
+        long next = since;
+        boolean more = false;
+        boolean reset;
+        synchronized (ChangeFeed.class) {
+            current = version;
+            reset = since < floor || since > version;
+            if (!reset) {
+                for (Map.Entry<Long, Integer> entry : LOG.tailMap(since, false).entrySet()) {
+                    if (seqs.size() >= limit) {
+                        more = true;
+                        break;
+                    }
+                    seqs.add(entry.getKey());
+                    missionIds.add(entry.getValue());
+                    convertInfos.add(INFOS.get(entry.getValue()));
+                    next = entry.getKey();
+                }
+                if (!more) {
+                    next = version;
+                }
+            }
+        }
+        // 在锁外序列化, 不阻塞任务状态变化
+        JSONArray changes = new JSONArray();
+        for (int i = 0; i < seqs.size(); i++) {
+            JSONObject json = (JSONObject) JSONObject.toJSON(convertInfos.get(i));
+            json.put("id", missionIds.get(i));
+            json.put("seq", seqs.get(i));
+            changes.add(json);
+        }
+        JSONObject result = new JSONObject();
+        result.put("version", current);
+        result.put("next", reset ? current : next);
+        result.put("more", more);
+        result.put("reset", reset);
+        result.put("changes", changes);
+        return result;
+    }
+}
@@ -0,0 +1,338 @@
+package com.converter.core;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.converter.config.ThreadPoolConfig;
+import com.converter.config.WorkerConfig;
+import com.converter.constant.DocumentType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+
+/**
+ * 自适应并发控制, 自动调整同时转换的任务数上限(AIMD, 参考Netflix concurrency-limits)
+ * 每个周期根据以下信号调整一次:
+ * 1. GC时间占比过高, 或者单位代价的转换耗时明显高于长期基线时, 上限乘以BACKOFF
+ * 2. 上一次增加上限后吞吐量(按文件大小和文档类别加权)下降时, 撤销这次增加
+ * 3. 周期内上限被占满(有任务因上限等待)、吞吐量没有下降且CPU使用率不超过adaptive-cpu-high时, 上限加1
+ * 转换是CPU密集型任务, CPU使用率高只说明CPU被充分利用, 不代表过载, 因此只用来限制增加, 不触发减小
+ * 上限在[adaptive-min, adaptive-max]之间, adaptive-max为0时以线程池最大线程数为上限
+ * 未启用时上限为线程池容量(max-pool-size + queue-capacity), 与原来一致
+ *
+ * @author Evan
+ */
+@Slf4j
+public final class ConcurrencyLimiter {
+    /**
+     * 减小上限时的乘数
+     */
+    private static final double BACKOFF = 0.75;
+    /**
+     * 单位代价耗时的长期基线与周期平均值之比低于该值时认为延迟升高
+     */
+    private static final double LATENCY_TOLERANCE = 0.8;
+    /**
+     * 吞吐量下降超过该比例时认为增加上限没有收益
+     */
+    private static final double THROUGHPUT_TOLERANCE = 0.95;
+    /**
+     * 长期基线的平滑系数
+     */
+    private static final double BASELINE_ALPHA = 0.05;
+    /**
+     * 保留的调整记录数
+     */
+    private static final int HISTORY_SIZE = 100;
+    /**
+     * 当前上限, 0代表还没有初始化
+     */
+    private static volatile int limit = 0;
+    /**
+     * 本周期内是否有任务因上限而等待
+     */
+    private static volatile boolean saturated = false;
+    /**
+     * 本周期完成的代价总和(文件大小 * 文档类别代价)
+     */
+    private static double periodCost = 0;
+    /**
+     * 本周期单位代价耗时之和
+     */
+    private static double periodLatency = 0;
+    /**
+     * 本周期完成的任务数
+     */
+    private static long periodCount = 0;
+    /**
+     * 单位代价耗时的长期基线
+     */
+    private static double baselineLatency = 0;
+    /**
+     * 上一周期的吞吐量(每秒代价)
+     */
+    private static double lastThroughput = 0;
+    /**
+     * 上一次调整是否增加了上限
+     */
+    private static boolean lastIncreased = false;
+    /**
+     * 上一周期结束时间
+     */
+    private static long lastTime = 0;
+    /**
+     * 上一周期结束时所有收集器的GC累计耗时
+     */
+    private static long lastGcMillis = 0;
+    /**
+     * 调整记录
+     */
+    private static final Deque<JSONObject> HISTORY = new ArrayDeque<>(HISTORY_SIZE);
+
+    private ConcurrencyLimiter() {
+    }
+
+    /**
+     * 获取同时转换的任务数上限
+     *
+     * @return 上限
+     */
+    public static int getLimit() {
+        if (!ThreadPoolConfig.instance().isAdaptive() || limit == 0) {
+            return ThreadPoolConfig.getCapacity();
+        }
+        return limit;
+    }
+
+    /**
+     * 初始化上限和各项基准值
+     */
+    static void init() {
+        init(System.currentTimeMillis(), gcMillis());
+    }
+
+    /**
+     * 初始化上限和各项基准值
+     *
+     * @param now      当前时间
+     * @param gcMillis GC累计耗时
+     */
+    static synchronized void init(final long now,
+                                  final long gcMillis) {
+        ThreadPoolConfig config = ThreadPoolConfig.instance();
+        if (!config.isAdaptive()) {
+            return;
+        }
+        limit = clamp(config.getCorePoolSize());
+        saturated = false;
+        periodCost = 0;
+        periodLatency = 0;
+        periodCount = 0;
+        baselineLatency = 0;
+        lastThroughput = 0;
+        lastIncreased = false;
+        lastTime = now;
+        lastGcMillis = gcMillis;
+        HISTORY.clear();
+        log.info("启用自适应并发控制, 初始上限{}, 范围[{}, {}]", limit, floor(), ceiling());
+    }
+
+    /**
+     * 调度时因上限而停止启动任务, 记录为饱和
+     */
+    static void onLimitReached() {
+        saturated = true;
+    }
+
+    /**
+     * 记录一次成功的转换
+     *
+     * @param documentType 文档类别
+     * @param fileSize     文件大小
+     * @param millis       转换耗时(毫秒)
+     */
+    static synchronized void recordConversion(final DocumentType documentType,
+                                              final long fileSize,
+                                              final long millis) {
+        double weight = documentType == null ? 1.0 : documentType.getCostWeight();
+        // 加上1KB, 避免空文件的单位代价耗时过大
+        double cost = (Math.max(0L, fileSize) + 1024) * weight;
+        periodCost += cost;
+        periodLatency += millis / cost;
+        periodCount++;
+    }
+
+    /**
+     * 周期调整上限, 由ConvertManager的调度线程池定时调用
+     *
+     * @return true代表上限增加, 需要唤醒调度
+     */
+    static boolean adjust() {
+        return adjust(System.currentTimeMillis(), gcMillis(), cpuLoad());
+    }
+
+    /**
+     * 根据本周期的信号调整上限
+     *
+     * @param now 当前时间
+     * @param gc  GC累计耗时
+     * @param cpu CPU使用率
+     * @return true代表上限增加, 需要唤醒调度
+     */
+    static synchronized boolean adjust(final long now,
+                                       final long gc,
+                                       final double cpu) {
+        if (!ThreadPoolConfig.instance().isAdaptive() || limit == 0) {
+            return false;
+        }
+        double seconds = Math.max(1, now - lastTime) / 1000.0;
+        double gcRatio = (gc - lastGcMillis) / 1000.0 / seconds;
+        double throughput = periodCost / seconds;
+        double latency = periodCount == 0 ? 0 : periodLatency / periodCount;
+        double gradient = 1.0;
+        if (latency > 0) {
+            baselineLatency = baselineLatency == 0 ? latency
+                    : baselineLatency * (1 - BASELINE_ALPHA) + latency * BASELINE_ALPHA;
+            gradient = baselineLatency / latency;
+        }
+        ThreadPoolConfig config = ThreadPoolConfig.instance();
+        int previous = limit;
+        String reason = null;
+        if (gcRatio > config.getAdaptiveGcHigh()) {
+            reason = "gc";
+        } else if (gradient < LATENCY_TOLERANCE) {
+            reason = "latency";
+        }
+        if (reason != null) {
+            limit = clamp((int) (limit * BACKOFF));
+        } else if (lastIncreased && throughput < lastThroughput * THROUGHPUT_TOLERANCE) {
+            reason = "throughput";
+            limit = clamp(limit - 1);
+        } else if (saturated && throughput >= lastThroughput * THROUGHPUT_TOLERANCE
+                && cpu <= config.getAdaptiveCpuHigh()) {
+            reason = "saturated";
+            limit = clamp(limit + 1);
+        }
+        // 上限可能因线程池最大线程数被手动修改而超出范围
+        limit = clamp(limit);
+        lastIncreased = limit > previous;
+        if (limit != previous) {
+            JSONObject entry = new JSONObject(true);
+            entry.put("time", now);
+            entry.put("from", previous);
+            entry.put("to", limit);
+            entry.put("reason", reason == null ? "range" : reason);
+            entry.put("throughput", Math.round(throughput));
+            entry.put("cpu", cpu);
+            entry.put("gc", gcRatio);
+            entry.put("latencyGradient", gradient);
+            if (HISTORY.size() >= HISTORY_SIZE) {
+                HISTORY.pollFirst();
+            }
+            HISTORY.addLast(entry);
+            log.info("并发上限调整为{}(原{}), 原因: {}", limit, previous, entry.getString("reason"));
+        }
+        // 只在有任务完成的周期更新吞吐量基准, 避免空闲周期把基准拉到0
+        if (periodCount > 0) {
+            lastThroughput = throughput;
+        }
+        periodCost = 0;
+        periodLatency = 0;
+        periodCount = 0;
+        saturated = false;
+        lastTime = now;
+        lastGcMillis = gc;
+        return lastIncreased;
+    }
+
+    /**
+     * 限制在[floor, ceiling]之间
+     *
+     * @param value 上限
+     * @return 限制后的上限
+     */
+    private static int clamp(final int value) {
+        return Math.max(floor(), Math.min(ceiling(), value));
+    }
+
+    /**
+     * 获取上限的最小值
+     *
+     * @return 最小值
+     */
+    private static int floor() {
+        return Math.max(1, Math.min(ThreadPoolConfig.instance().getAdaptiveMin(), ceiling()));
+    }
+
+    /**
+     * 获取上限的最大值, 不超过线程池最大线程数(超出的任务只会在线程池队列中等待)
+     *
+     * @return 最大值
+     */
+    private static int ceiling() {
+        ThreadPoolConfig config = ThreadPoolConfig.instance();
+        int max = config.getAdaptiveMax();
+        return max > 0 ? Math.min(max, config.getMaxPoolSize()) : config.getMaxPoolSize();
+    }
+
+    /**
+     * 获取所有收集器的GC累计耗时
+     *
+     * @return 毫秒
+     */
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, bean.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * 获取CPU使用率, 启用转换进程时转换在子进程中进行, 使用整个系统的使用率
+     *
+     * @return 0~1, 不支持时为0
+     */
+    private static double cpuLoad() {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (!(bean instanceof com.sun.management.OperatingSystemMXBean)) {
+            return 0;
+        }
+        com.sun.management.OperatingSystemMXBean osBean = (com.sun.management.OperatingSystemMXBean) bean;
+        double load = WorkerConfig.instance().isEnabled() ? osBean.getSystemCpuLoad() : osBean.getProcessCpuLoad();
+        return Math.max(0, load);
+    }
+
+    /**
+     * 获取调整记录中最近一次调整的原因
+     *
+     * @return 原因, 没有调整记录时为null
+     */
+    static synchronized String getLastReason() {
+        return HISTORY.isEmpty() ? null : HISTORY.peekLast().getString("reason");
+    }
+
+    /**
+     * 获取当前上限和调整记录
+     *
+     * @return json对象
+     */
+    public static synchronized JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        boolean adaptive = ThreadPoolConfig.instance().isAdaptive();
+        json.put("adaptive", adaptive);
+        json.put("limit", getLimit());
+        if (adaptive) {
+            json.put("floor", floor());
+            json.put("ceiling", ceiling());
+            json.put("baselineLatency", baselineLatency);
+            json.put("lastThroughput", Math.round(lastThroughput));
+            json.put("history", new JSONArray(new ArrayList<>(HISTORY)));
+        }
+        return json;
+    }
+}
@@ -0,0 +1,397 @@
+package com.converter.core;
+
+import com.alibaba.fastjson.JSONObject;
+import com.converter.config.CacheConfig;
+import com.converter.constant.DocumentType;
+import com.converter.converter.AbstractConverter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 转换缓存, 以源文件内容和转换参数的SHA-256为键保存转换结果
+ * 命中时把缓存的PDF硬链接(不支持时复制)到目的路径, 不再调用转换器
+ * 缓存文件设置为只读, 防止通过硬链接修改目的文件时破坏缓存; 占用空间超过上限时按LRU淘汰
+ * 访问顺序记录在缓存目录的访问日志中, 不修改缓存文件的最后修改时间, 硬链接出去的目的文件的修改时间(ETag)保持不变
+ *
+ * @author Evan
+ */
+@Slf4j
+@Component
+@DependsOn({"cacheConfig", "customizeConfig"})
+public final class ConvertCache {
+    /**
+     * 缓存格式版本, 转换逻辑变化时修改, 使旧缓存全部失效
+     */
+    private static final String VERSION = "1";
+    /**
+     * 缓存文件后缀
+     */
+    private static final String SUFFIX = ".pdf";
+    /**
+     * 写入中的临时文件后缀
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * 访问日志文件名, 每行一个写入或命中的缓存键, 重启时据此恢复LRU顺序
+     */
+    private static final String RECENCY_LOG = "recency.log";
+    /**
+     * 访问日志行数超过缓存文件数的倍数时压缩
+     */
+    private static final int RECENCY_COMPACT_RATIO = 4;
+    /**
+     * 缓存索引, 键为缓存键, 值为文件大小, 按访问顺序排列
+     */
+    private static final LinkedHashMap<String, Long> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * 命中次数
+     */
+    private static final AtomicLong HITS = new AtomicLong();
+    /**
+     * 未命中次数
+     */
+    private static final AtomicLong MISSES = new AtomicLong();
+    /**
+     * 淘汰次数
+     */
+    private static final AtomicLong EVICTIONS = new AtomicLong();
+    /**
+     * 缓存目录, 为null代表未启用
+     */
+    private static Path dir = null;
+    /**
+     * 缓存文件总大小
+     */
+    private static long totalSize = 0;
+    /**
+     * 访问日志当前行数
+     */
+    private static long recencyLines = 0;
+
+    /**
+     * 初始化, 按写入时间重建缓存索引再按访问日志恢复LRU顺序, 并清理上次残留的临时文件
+     */
+    @PostConstruct
+    public void init() {
+        CacheConfig config = CacheConfig.instance();
+        if (!config.isEnabled()) {
+            return;
+        }
+        log.debug("开始初始化ConvertCache");
+        try {
+            Path path = Paths.get(config.getDir()).toAbsolutePath();
+            Files.createDirectories(path);
+            File[] files = path.toFile().listFiles();
+            if (files != null) {
+                Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+                synchronized (ConvertCache.class) {
+                    for (File file : files) {
+                        String name = file.getName();
+                        if (name.endsWith(TEMP_SUFFIX)) {
+                            delete(file.toPath());
+                        } else if (name.endsWith(SUFFIX)) {
+                            ENTRIES.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+                            totalSize += file.length();
+                        }
+                    }
+                    replayRecency(path.resolve(RECENCY_LOG));
+                }
+            }
+            dir = path;
+            synchronized (ConvertCache.class) {
+                compactRecency();
+            }
+            evict();
+            log.debug("成功初始化ConvertCache, 缓存文件数{}, 占用空间{}MB", ENTRIES.size(), totalSize >> 20);
+        } catch (IOException e) {
+            log.error("转换缓存目录初始化失败, 不启用转换缓存", e);
+        }
+    }
+
+    /**
+     * 计算缓存键
+     *
+     * @param documentType   文档类别
+     * @param sourceFilePath 源文件路径
+     * @return 缓存键, 未启用缓存或读取失败时返回null
+     */
+    public static String key(final DocumentType documentType,
+                             final String sourceFilePath) {
+        if (dir == null) {
+            return null;
+        }
+        try (InputStream inputStream = Files.newInputStream(Paths.get(sourceFilePath))) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((VERSION + "|" + AbstractConverter.getOptionsFingerprint(documentType) + "|")
+                    .getBytes(StandardCharsets.UTF_8));
+            byte[] buffer = new byte[64 * 1024];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, length);
+            }
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest.digest()) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.warn("计算缓存键失败, 跳过转换缓存[{}]", sourceFilePath, e);
+            return null;
+        }
+    }
+
+    /**
+     * 查找缓存, 命中时把缓存的PDF放到目的路径
+     * 未命中时删除目的路径上已有的文件, 避免转换器写入以前链接过来的缓存文件
+     *
+     * @param key            缓存键
+     * @param targetFilePath 目的路径
+     * @return true代表命中
+     */
+    public static boolean fetch(final String key,
+                                final String targetFilePath) {
+        Path target = Paths.get(targetFilePath);
+        boolean cached;
+        synchronized (ConvertCache.class) {
+            cached = ENTRIES.get(key) != null;
+        }
+        try {
+            if (cached) {
+                Path source = dir.resolve(key + SUFFIX);
+                place(source, target);
+                // 目的文件可能是硬链接, 不能修改缓存文件的最后修改时间, 访问顺序写入访问日志
+                recordAccess(key);
+                HITS.incrementAndGet();
+                return true;
+            }
+        } catch (IOException e) {
+            // 缓存文件可能刚好被淘汰, 当作未命中处理
+            log.warn("读取转换缓存失败[{}]", key, e);
+            remove(key);
+        }
+        MISSES.incrementAndGet();
+        try {
+            Files.deleteIfExists(target);
+        } catch (IOException e) {
+            log.warn("删除已有目的文件失败[{}]", targetFilePath, e);
+        }
+        return false;
+    }
+
+    /**
+     * 把转换结果写入缓存
+     *
+     * @param key            缓存键
+     * @param targetFilePath 转换得到的PDF路径
+     */
+    public static void store(final String key,
+                             final String targetFilePath) {
+        synchronized (ConvertCache.class) {
+            if (dir == null || ENTRIES.containsKey(key)) {
+                return;
+            }
+        }
+        Path cached = dir.resolve(key + SUFFIX);
+        Path temp = dir.resolve(key + "-" + Thread.currentThread().getId() + TEMP_SUFFIX);
+        try {
+            long size = Files.size(Paths.get(targetFilePath));
+            if (size > maxSize()) {
+                return;
+            }
+            // 先复制到临时文件再原子移动, 避免其他任务读到写了一半的缓存
+            Files.copy(Paths.get(targetFilePath), temp, StandardCopyOption.REPLACE_EXISTING);
+            if (!temp.toFile().setReadOnly()) {
+                log.debug("缓存文件设置只读失败[{}]", temp);
+            }
+            try {
+                Files.move(temp, cached, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING);
+            }
+            synchronized (ConvertCache.class) {
+                if (ENTRIES.put(key, size) == null) {
+                    totalSize += size;
+                }
+            }
+            recordAccess(key);
+            evict();
+        } catch (IOException e) {
+            log.warn("写入转换缓存失败[{}]", targetFilePath, e);
+            delete(temp);
+        }
+    }
+
+    /**
+     * 把缓存文件放到目的路径, 优先使用硬链接
+     *
+     * @param source 缓存文件
+     * @param target 目的路径
+     * @throws IOException 链接和复制都失败
+     */
+    private static void place(final Path source,
+                              final Path target) throws IOException {
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            // 跨文件系统或文件系统不支持硬链接时复制
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 按访问日志把缓存键依次移到LRU末尾, 日志中已不存在的缓存键忽略
+     *
+     * @param path 访问日志
+     */
+    private static void replayRecency(final Path path) {
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+        try {
+            for (String key : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                ENTRIES.get(key);
+            }
+        } catch (IOException e) {
+            log.warn("读取缓存访问日志失败, 按写入时间恢复LRU顺序", e);
+        }
+    }
+
+    /**
+     * 在访问日志中追加一行, 行数过多时压缩
+     *
+     * @param key 缓存键
+     */
+    private static synchronized void recordAccess(final String key) {
+        try {
+            Files.write(dir.resolve(RECENCY_LOG), (key + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            recencyLines++;
+        } catch (IOException e) {
+            log.warn("写入缓存访问日志失败[{}]", key, e);
+        }
+        if (recencyLines > (long) RECENCY_COMPACT_RATIO * Math.max(ENTRIES.size(), 256)) {
+            compactRecency();
+        }
+    }
+
+    /**
+     * 按当前LRU顺序重写访问日志, 先写临时文件再替换, 调用时需持有ConvertCache.class锁
+     */
+    private static void compactRecency() {
+        Path temp = dir.resolve(RECENCY_LOG + TEMP_SUFFIX);
+        try {
+            Files.write(temp, ENTRIES.keySet(), StandardCharsets.UTF_8);
+            try {
+                Files.move(temp, dir.resolve(RECENCY_LOG), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, dir.resolve(RECENCY_LOG), StandardCopyOption.REPLACE_EXISTING);
+            }
+            recencyLines = ENTRIES.size();
+        } catch (IOException e) {
+            log.warn("压缩缓存访问日志失败", e);
+            delete(temp);
+        }
+    }
+
+    /**
+     * 淘汰最久未使用的缓存, 直到占用空间不超过上限
+     */
+    private static void evict() {
+        long maxSize = maxSize();
+        synchronized (ConvertCache.class) {
+            Iterator<Map.Entry<String, Long>> iterator = ENTRIES.entrySet().iterator();
+            while (totalSize > maxSize && iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                iterator.remove();
+                totalSize -= entry.getValue();
+                delete(dir.resolve(entry.getKey() + SUFFIX));
+                EVICTIONS.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 移除缓存
+     *
+     * @param key 缓存键
+     */
+    private static void remove(final String key) {
+        synchronized (ConvertCache.class) {
+            Long size = ENTRIES.remove(key);
+            if (size != null) {
+                totalSize -= size;
+            }
+        }
+        delete(dir.resolve(key + SUFFIX));
+    }
+
+    /**
+     * 删除缓存文件, 只读文件需要先恢复写权限(Windows下只读文件不能删除)
+     *
+     * @param path 文件路径
+     */
+    private static void delete(final Path path) {
+        try {
+            path.toFile().setWritable(true);
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("删除缓存文件失败[{}]", path, e);
+        }
+    }
+
+    /**
+     * 缓存目录最大占用空间
+     *
+     * @return 字节数
+     */
+    private static long maxSize() {
+        return Math.max(0, CacheConfig.instance().getMaxSizeMb()) * 1024L * 1024L;
+    }
+
+    /**
+     * 获取缓存状态(文件数、占用空间、命中、未命中、淘汰次数)
+     *
+     * @return json对象
+     */
+    public static JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        long hits = HITS.get();
+        long misses = MISSES.get();
+        json.put("enabled", dir != null);
+        synchronized (ConvertCache.class) {
+            json.put("entries", ENTRIES.size());
+            json.put("size", totalSize);
+        }
+        json.put("maxSize", maxSize());
+        json.put("hits", hits);
+        json.put("misses", misses);
+        json.put("hitRate", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+        json.put("evictions", EVICTIONS.get());
+        return json;
+    }
+}
@@ -0,0 +1,371 @@
+package com.converter.core;
+
+import com.alibaba.fastjson.JSONObject;
+import com.converter.config.CustomizeConfig;
+import com.converter.constant.ConvertStatus;
+import com.converter.mapper.ConvertInfoMapper;
+import com.converter.pojo.ConvertInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 转换信息异步批量写入数据库
+ * 已完成任务的转换信息先进入队列, 由写入线程攒够persist-batch-size条或等待persist-flush-millis毫秒后一次写入多行
+ * 数据库不可用时保留当前批次, 按指数退避重试; 正常关闭时写入剩余记录, 仍然失败则追加到本地溢出文件, 下次启动时补写
+ *
+ * @author Evan
+ */
+@Slf4j
+@Component
+@DependsOn("customizeConfig")
+public final class ConvertInfoWriter {
+    /**
+     * 重试间隔上限(毫秒)
+     */
+    private static final long MAX_BACKOFF = 30_000;
+    /**
+     * 关闭时等待写入线程结束的时间(秒)
+     */
+    private static final long SHUTDOWN_SECONDS = 30;
+    /**
+     * 攒批时检查是否有人等待写入的间隔(毫秒)
+     */
+    private static final long FLUSH_CHECK_MILLIS = 10;
+    /**
+     * 等待写入的转换信息
+     */
+    private static final LinkedBlockingQueue<ConvertInfo> QUEUE = new LinkedBlockingQueue<>();
+    /**
+     * 关闭信号, 用于唤醒重试等待
+     */
+    private static final CountDownLatch CLOSING = new CountDownLatch(1);
+    /**
+     * 已进入队列的记录数, 作为提交序号
+     */
+    private static final AtomicLong SUBMITTED = new AtomicLong();
+    /**
+     * 已进入队列的记录中已写入数据库或溢出文件的记录数, 队列先进先出, 达到某个提交序号即代表之前的记录都已写入
+     */
+    private static final AtomicLong SETTLED = new AtomicLong();
+    /**
+     * 等待写入的提交序号, 写入线程攒批时发现有人等待则立即写入
+     */
+    private static volatile long flushTarget = 0;
+    /**
+     * 已写入的记录数
+     */
+    private static final AtomicLong WRITTEN = new AtomicLong();
+    /**
+     * 已执行的批量写入次数
+     */
+    private static final AtomicLong BATCHES = new AtomicLong();
+    /**
+     * 写入失败次数
+     */
+    private static final AtomicLong FAILURES = new AtomicLong();
+    /**
+     * 写入溢出文件的记录数
+     */
+    private static final AtomicLong SPILLED = new AtomicLong();
+    /**
+     * mapper, 用于写入mysql数据库
+     */
+    private static ConvertInfoMapper convertInfoMapper;
+    /**
+     * 写入线程
+     */
+    private static Thread writer;
+    /**
+     * 是否已关闭, 关闭后提交的记录直接写入溢出文件
+     */
+    private static boolean closed = false;
+
+    /**
+     * 初始化, 补写上次遗留在溢出文件中的记录, 并启动写入线程
+     *
+     * @param convertInfoMapper mapper, 用于写入mysql数据库
+     */
+    @Autowired
+    private void init(final @Qualifier("convertInfoMapper") ConvertInfoMapper convertInfoMapper) {
+        log.debug("开始初始化ConvertInfoWriter");
+        ConvertInfoWriter.convertInfoMapper = convertInfoMapper;
+        replay();
+        writer = new Thread(ConvertInfoWriter::run, "db-writer");
+        writer.setDaemon(true);
+        writer.start();
+        log.debug("成功初始化ConvertInfoWriter");
+    }
+
+    /**
+     * 提交一条需要写入数据库的转换信息
+     *
+     * @param convertInfo 转换信息
+     */
+    public static void submit(final ConvertInfo convertInfo) {
+        synchronized (QUEUE) {
+            if (!closed) {
+                SUBMITTED.incrementAndGet();
+                QUEUE.add(convertInfo);
+                return;
+            }
+        }
+        spill(Collections.singletonList(convertInfo));
+    }
+
+    /**
+     * 关闭, 等待写入线程写完剩余记录
+     */
+    @PreDestroy
+    public void close() {
+        synchronized (QUEUE) {
+            closed = true;
+        }
+        CLOSING.countDown();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            log.error("等待写入数据库超时, 剩余{}条记录写入溢出文件", QUEUE.size());
+        }
+        List<ConvertInfo> rest = new ArrayList<>();
+        QUEUE.drainTo(rest);
+        spill(rest);
+    }
+
+    /**
+     * 获取当前的提交序号, 用于之后等待在此之前提交的记录写入
+     *
+     * @return 提交序号
+     */
+    public static long getSubmitted() {
+        return SUBMITTED.get();
+    }
+
+    /**
+     * 等待提交序号target之前的记录写入数据库, 之后提交的记录不影响等待时间
+     *
+     * @param target        提交序号
+     * @param timeoutMillis 最长等待时间(毫秒)
+     * @return true代表已全部写入
+     */
+    public static boolean flush(final long target,
+                                final long timeoutMillis) {
+        if (SETTLED.get() >= target) {
+            return true;
+        }
+        if (target > flushTarget) {
+            flushTarget = target;
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            while (SETTLED.get() < target) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 获取写入状态
+     *
+     * @return json对象
+     */
+    public static JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("queued", QUEUE.size());
+        json.put("pending", SUBMITTED.get() - SETTLED.get());
+        json.put("written", WRITTEN.get());
+        json.put("batches", BATCHES.get());
+        json.put("failures", FAILURES.get());
+        json.put("spilled", SPILLED.get());
+        return json;
+    }
+
+    /**
+     * 写入线程, 批量写入队列中的记录, 失败时保留批次并退避重试
+     */
+    private static void run() {
+        CustomizeConfig config = CustomizeConfig.instance();
+        int batchSize = Math.max(1, config.getPersistBatchSize());
+        long flushMillis = Math.max(1, config.getPersistFlushMillis());
+        List<ConvertInfo> batch = new ArrayList<>(batchSize);
+        long backoff = 0;
+        try {
+            while (CLOSING.getCount() > 0) {
+                if (batch.isEmpty() && !collect(batch, batchSize, flushMillis)) {
+                    continue;
+                }
+                int size = batch.size();
+                try {
+                    insert(batch);
+                    batch.clear();
+                    backoff = 0;
+                } catch (Exception e) {
+                    FAILURES.incrementAndGet();
+                    backoff = Math.min(MAX_BACKOFF, Math.max(1000, backoff * 2));
+                    log.error("批量写入数据库失败, {}毫秒后重试, 待写入{}条, 错误信息:{}",
+                            backoff, batch.size() + QUEUE.size(), e.getMessage());
+                    CLOSING.await(backoff, TimeUnit.MILLISECONDS);
+                } finally {
+                    // insert会移除已写入的部分
+                    SETTLED.addAndGet(size - batch.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            log.warn("写入线程被中断");
+        }
+        // 关闭前再尝试一次, 失败则写入溢出文件
+        QUEUE.drainTo(batch);
+        try {
+            insert(batch);
+        } catch (Exception e) {
+            log.error("关闭时写入数据库失败, {}条记录写入溢出文件, 错误信息:{}", batch.size(), e.getMessage());
+            spill(batch);
+        }
+    }
+
+    /**
+     * 从队列中收集一批记录, 攒够batchSize条或超时后返回
+     *
+     * @param batch       批次
+     * @param batchSize   批次大小
+     * @param flushMillis 第一条记录到达后最多等待的时间(毫秒)
+     * @return true代表收集到了记录
+     * @throws InterruptedException 等待时被中断
+     */
+    private static boolean collect(final List<ConvertInfo> batch,
+                                   final int batchSize,
+                                   final long flushMillis) throws InterruptedException {
+        ConvertInfo first = QUEUE.poll(flushMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return false;
+        }
+        batch.add(first);
+        long deadline = System.currentTimeMillis() + flushMillis;
+        while (batch.size() < batchSize && CLOSING.getCount() > 0) {
+            QUEUE.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.currentTimeMillis();
+            // 有人等待的记录都已在本批次中时立即写入
+            boolean awaited = flushTarget <= SETTLED.get() + batch.size() && flushTarget > SETTLED.get();
+            if (batch.size() >= batchSize || remaining <= 0 || awaited) {
+                break;
+            }
+            ConvertInfo next = QUEUE.poll(Math.min(remaining, FLUSH_CHECK_MILLIS), TimeUnit.MILLISECONDS);
+            if (next != null) {
+                batch.add(next);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按批次大小分段写入数据库, 每段为一条多行INSERT语句, 失败时整段回滚, 重试不会产生重复记录
+     *
+     * @param convertInfos 转换信息
+     */
+    private static void insert(final List<ConvertInfo> convertInfos) {
+        int batchSize = Math.max(1, CustomizeConfig.instance().getPersistBatchSize());
+        while (!convertInfos.isEmpty()) {
+            List<ConvertInfo> part = convertInfos.subList(0, Math.min(batchSize, convertInfos.size()));
+            convertInfoMapper.insertBatch(part);
+            WRITTEN.addAndGet(part.size());
+            BATCHES.incrementAndGet();
+            log.debug("写入数据库成功, 共{}条", part.size());
+            // 已写入的部分从列表移除, 后续失败时只重试剩余部分
+            part.clear();
+        }
+    }
+
+    /**
+     * 将记录追加到溢出文件, 每行一个json对象
+     *
+     * @param convertInfos 转换信息
+     */
+    private static synchronized void spill(final List<ConvertInfo> convertInfos) {
+        if (convertInfos.isEmpty()) {
+            return;
+        }
+        Path path = Paths.get(CustomizeConfig.instance().getPersistSpillFile()).toAbsolutePath();
+        try (BufferedWriter bufferedWriter = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (ConvertInfo convertInfo : convertInfos) {
+                bufferedWriter.write(convertInfo.toString());
+                bufferedWriter.newLine();
+            }
+            SPILLED.addAndGet(convertInfos.size());
+            log.warn("{}条转换信息已写入溢出文件{}, 下次启动时补写数据库", convertInfos.size(), path);
+        } catch (IOException e) {
+            log.error("写入溢出文件失败, 丢失{}条转换信息: {}", convertInfos.size(), convertInfos, e);
+        }
+    }
+
+    /**
+     * 补写溢出文件中的记录, 写入失败时放回队列由写入线程重试
+     */
+    private static void replay() {
+        Path path = Paths.get(CustomizeConfig.instance().getPersistSpillFile()).toAbsolutePath();
+        if (!Files.exists(path)) {
+            return;
+        }
+        List<ConvertInfo> convertInfos = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    convertInfos.add(parse(JSONObject.parseObject(line)));
+                }
+            }
+            Files.delete(path);
+        } catch (Exception e) {
+            log.error("读取溢出文件{}失败, 请检查后手动处理", path, e);
+            return;
+        }
+        log.info("补写溢出文件中的{}条转换信息", convertInfos.size());
+        try {
+            insert(convertInfos);
+        } catch (Exception e) {
+            log.error("补写数据库失败, 剩余{}条交给写入线程重试, 错误信息:{}", convertInfos.size(), e.getMessage());
+            SUBMITTED.addAndGet(convertInfos.size());
+            QUEUE.addAll(convertInfos);
+        }
+    }
+
+    /**
+     * 从json对象还原转换信息
+     *
+     * @param json json对象
+     * @return 转换信息
+     */
+    private static ConvertInfo parse(final JSONObject json) {
+        return new ConvertInfo(json.getString("source"), json.getString("target"), json.getLong("size"),
+                json.getLong("join"), json.getLong("start"), json.getLong("end"),
+                ConvertStatus.valueOf(json.getString("status")), json.getInteger("retry"),
+                json.getString("exceptions"));
+    }
+}
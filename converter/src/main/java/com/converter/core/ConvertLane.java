@@ -0,0 +1,183 @@
+package com.converter.core;
+
+import com.alibaba.fastjson.JSONObject;
+import com.converter.config.CustomizeConfig;
+import com.converter.constant.DocumentType;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 转换通道, 每种文档类别一个通道, 各自限制同时转换的任务数
+ * 通道已满的任务留在ConvertManager的任务列表中等待, 不会占用转换线程, 因此某一类文档积压不会影响其他类别
+ *
+ * @author Evan
+ */
+public final class ConvertLane {
+    /**
+     * 所有通道
+     */
+    private static final Map<DocumentType, ConvertLane> LANES = new EnumMap<>(DocumentType.class);
+    /**
+     * 吞吐量统计窗口(秒)
+     */
+    private static final int WINDOW = 60;
+
+    static {
+        for (DocumentType documentType : DocumentType.values()) {
+            LANES.put(documentType, new ConvertLane(documentType));
+        }
+    }
+
+    /**
+     * 通道对应的文档类别
+     */
+    private final DocumentType documentType;
+    /**
+     * 正在转换(包括在线程池中等待)的任务数
+     */
+    private final AtomicInteger running = new AtomicInteger();
+    /**
+     * 已结束的任务总数
+     */
+    private final AtomicLong completed = new AtomicLong();
+    /**
+     * 最近一轮调度时通道中等待的任务数
+     */
+    private volatile int waiting;
+    /**
+     * 每秒结束的任务数, 按秒循环使用
+     */
+    private final long[] buckets = new long[WINDOW];
+    /**
+     * buckets中每个位置对应的秒数
+     */
+    private final long[] bucketSeconds = new long[WINDOW];
+
+    private ConvertLane(final DocumentType documentType) {
+        this.documentType = documentType;
+    }
+
+    /**
+     * 获取文档类别对应的通道
+     *
+     * @param documentType 文档类别
+     * @return 通道, documentType为null时返回null
+     */
+    public static ConvertLane of(final DocumentType documentType) {
+        return documentType == null ? null : LANES.get(documentType);
+    }
+
+    /**
+     * 获取通道并发上限, 配置为0或负数代表只受线程池大小限制
+     *
+     * @return 并发上限
+     */
+    public int getLimit() {
+        CustomizeConfig config = CustomizeConfig.instance();
+        int limit;
+        switch (documentType) {
+            case WORD:
+                limit = config.getWordConcurrency();
+                break;
+            case CELL:
+                limit = config.getCellConcurrency();
+                break;
+            default:
+                limit = config.getSlideConcurrency();
+        }
+        return limit <= 0 ? Integer.MAX_VALUE : limit;
+    }
+
+    /**
+     * 尝试占用通道中的一个位置
+     *
+     * @return true代表成功
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = running.get();
+            if (current >= getLimit()) {
+                return false;
+            }
+            if (running.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放通道中的一个位置
+     *
+     * @param finished true代表任务已结束(计入吞吐量), false代表任务被退回等待
+     */
+    public void release(final boolean finished) {
+        running.decrementAndGet();
+        if (finished) {
+            completed.incrementAndGet();
+            recordCompletion(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * 设置等待的任务数
+     *
+     * @param waiting 等待的任务数
+     */
+    void setWaiting(final int waiting) {
+        this.waiting = waiting;
+    }
+
+    /**
+     * 记录一次任务结束
+     *
+     * @param second 结束时间(秒)
+     */
+    private synchronized void recordCompletion(final long second) {
+        int index = (int) (second % WINDOW);
+        if (bucketSeconds[index] != second) {
+            bucketSeconds[index] = second;
+            buckets[index] = 0;
+        }
+        buckets[index]++;
+    }
+
+    /**
+     * 获取最近一分钟结束的任务数
+     *
+     * @return 任务数
+     */
+    private synchronized long throughput() {
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        long sum = 0;
+        for (int i = 0; i < WINDOW; i++) {
+            if (now - bucketSeconds[i] < WINDOW) {
+                sum += buckets[i];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 获取所有通道的状态(上限、正在转换、等待、已结束、最近一分钟吞吐量)
+     *
+     * @return json对象
+     */
+    public static JSONObject toJson() {
+        JSONObject result = new JSONObject();
+        for (ConvertLane lane : LANES.values()) {
+            int limit = lane.getLimit();
+            JSONObject json = new JSONObject();
+            json.put("limit", limit == Integer.MAX_VALUE ? 0 : limit);
+            json.put("running", lane.running.get());
+            json.put("waiting", lane.waiting);
+            json.put("completed", lane.completed.get());
+            json.put("perMinute", lane.throughput());
+            result.put(lane.documentType.name(), json);
+        }
+        return result;
+    }
+}
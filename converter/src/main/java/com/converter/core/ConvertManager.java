@@ -4,8 +4,12 @@ import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.converter.config.CustomizeConfig;
 import com.converter.config.ThreadPoolConfig;
+import com.converter.config.WorkerConfig;
 import com.converter.constant.ConvertStatus;
+import com.converter.constant.DocumentType;
 import com.converter.converter.AbstractConverter;
+import com.converter.converter.ConverterWarmup;
+import com.converter.exception.FileException;
 import com.converter.mapper.ConvertInfoMapper;
 import com.converter.pojo.ConvertInfo;
 import com.converter.utils.FileUtils;
@@ -17,18 +21,26 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * 主要管理类
@@ -39,20 +51,51 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Slf4j
 @Component
 @EnableScheduling
-@DependsOn({"redisUtils", "customizeConfig"})
+@DependsOn({"redisUtils", "customizeConfig", "workerConfig", "convertInfoWriter"})
 public class ConvertManager {
     /**
      * 标记上传文件
      */
     public static final String UPLOAD = "_UPLOAD_";
     /**
-     * GC界限, 如果可用内存与最大内存比例小于GC, 就会进行GC
+     * 目录导入等待任务列表空位时使用的锁
      */
-    private static final Double GC = 0.05;
+    private static final Object INGEST_LOCK = new Object();
     /**
-     * 存放已完成的转换信息(状态为FINISH、ERROR或CANCEL)
+     * redis中记录文件集合对应的MySQL指纹(记录数:最大id:源文件数)的key后缀
      */
-    private static final List<ConvertInfo> FINISHED_INFO = Collections.synchronizedList(new LinkedList<>());
+    private static final String FINGERPRINT_SUFFIX = "_FINGERPRINT";
+    /**
+     * 启动时写入redis的每条SADD命令的值个数
+     */
+    private static final int REDIS_CHUNK_SIZE = 1000;
+    /**
+     * 批量添加结果: 已加入任务列表
+     */
+    private static final String BATCH_ACCEPTED = "accepted";
+    /**
+     * 批量添加结果: 已处理过或在同一批次中重复
+     */
+    private static final String BATCH_DUPLICATE = "duplicate";
+    /**
+     * 批量添加结果: 校验失败
+     */
+    private static final String BATCH_ERROR = "error";
+    /**
+     * 等待队列的顺序: 排序键小的先启动, 相同时按进入队列先后, 同一毫秒进入的按任务id
+     */
+    private static final Comparator<ConvertMission> ORDER = Comparator.comparingDouble(ConvertMission::getScheduleKey)
+            .thenComparingLong(ConvertMission::getQueueTime)
+            .thenComparingInt(ConvertMission::getMissionId);
+    /**
+     * 新进入等待状态(加入、重试、被线程池退回)的任务, 调度时移入WAITING
+     */
+    private static final Queue<ConvertMission> ARRIVALS = new ConcurrentLinkedQueue<>();
+    /**
+     * 等待启动的任务, 每个文档类别一个优先队列(不支持的类型为null), 只在startMissions中访问
+     * 已取消或已启动的任务不主动移除, 到达队首时丢弃
+     */
+    private static final Map<DocumentType, PriorityQueue<ConvertMission>> WAITING = new HashMap<>();
     /**
      * 任务执行线程池, 用于执行转换任务
      */
@@ -61,6 +104,10 @@ public class ConvertManager {
      * 任务调度线程池, 用于控制任务流程
      */
     private static ThreadPoolTaskScheduler threadPoolTaskScheduler;
+    /**
+     * 流程控制执行器, 用于添加任务、调度任务和处理任务回调(virtual模式下为虚拟线程)
+     */
+    private static TaskExecutor orchestrationExecutor;
     /**
      * mapper, 用于读写mysql数据库
      */
@@ -77,41 +124,74 @@ public class ConvertManager {
      * 存放任务执行线程池中所有任务的结果, 可用于取消任务
      */
     private static ConcurrentHashMap<Integer, Future<?>> futures;
-    /**
-     * 判断任务状态是否改变
-     */
-    private static boolean modify;
     /**
      * 记录当前线程池任务数
      */
     private static AtomicInteger threadCount;
+    /**
+     * 分段转换额外占用的位置数, 不在线程池中, 扫描校正threadCount时需要加上
+     */
+    private static AtomicInteger partSlots;
+    /**
+     * 是否已有等待执行的调度, 用于合并短时间内的多次唤醒
+     */
+    private static AtomicBoolean dispatching;
+    /**
+     * 启动任务的方式, 默认提交到任务执行线程池, 基准测试中替换为不做转换的桩
+     */
+    private static Consumer<ConvertMission> launcher = ConvertMission::startMission;
 
     private ConvertManager() {
     }
 
     /**
      * 清理Redis缓存, 使用MySQL数据库中数据代替, 之后程序主要读取Redis缓存
+     * 按id分段读取源文件路径, 内存中只保留一段; Redis中的文件集合与MySQL一致(指纹相同)时不重建
      */
     private static void deepInit() {
         try {
             log.debug("开始加载mysql, 准备写入redis");
+            CustomizeConfig config = CustomizeConfig.instance();
             // 文件路径key
-            String fileKey = CustomizeConfig.instance().getRedisFileKey();
+            String fileKey = config.getRedisFileKey();
             // 文件夹路径key
-            String dirKey = CustomizeConfig.instance().getRedisDirKey();
-            // 删除redis缓存
-            RedisUtils.del(fileKey, dirKey);
-            // 从数据库中读取所有转换信息（只有状态为FINISH、CANCEL或ERROR的才写入数据库）
-            List<ConvertInfo> convertInfos = convertInfoMapper.getAll();
-            // 将数据库中数据添加到redis缓存中
-            if (convertInfos.size() > 0) {
-                RedisUtils.sSet(fileKey, convertInfos.parallelStream().map(ConvertInfo::getSourceFilePath).distinct().toArray());
+            String dirKey = config.getRedisDirKey();
+            // 指纹key
+            String fingerprintKey = fileKey + FINGERPRINT_SUFFIX;
+            // 只有状态为FINISH、CANCEL或ERROR的才写入数据库
+            long rows = convertInfoMapper.countByStatus(Collections.emptyList());
+            long maxId = convertInfoMapper.getMaxId();
+            long sources = convertInfoMapper.countSources();
+            String fingerprint = rows + ":" + maxId + ":" + sources;
+            // 集合在上次运行中变化过(加入新文件或删除文件)时指纹已被删除
+            boolean consistent = fingerprint.equals(RedisUtils.get(fingerprintKey));
+            // 删除redis缓存, 指纹在重建完成后才写入, 重建中途退出时下次仍会重建
+            if (consistent) {
+                RedisUtils.del(dirKey);
+            } else {
+                RedisUtils.del(fileKey, dirKey, fingerprintKey);
+            }
+            int chunkSize = Math.max(1, config.getLoadChunkSize());
+            for (long from = 0; from < maxId; from += chunkSize) {
+                List<String> sourceFilePaths = convertInfoMapper.getSourcePaths(from, from + chunkSize);
+                if (sourceFilePaths.isEmpty()) {
+                    continue;
+                }
+                // 将数据库中数据添加到redis缓存中
+                if (!consistent) {
+                    RedisUtils.sSetChunks(fileKey, sourceFilePaths, REDIS_CHUNK_SIZE);
+                }
+                // 同时建立进程内索引, 之后检查文件是否处理过时优先查索引
+                FileUtils.loadFileIndex(sourceFilePaths);
             }
-            // 写入FINISHED_INFO
-            synchronized (FINISHED_INFO) {
-                FINISHED_INFO.addAll(convertInfos);
+            if (!consistent) {
+                RedisUtils.set(fingerprintKey, fingerprint);
             }
-            log.debug("mysql加载成功, 已成功写入redis缓存");
+            FileUtils.trackFingerprint(fingerprintKey);
+            // 最近的记录写入内存窗口
+            FinishedHistory.init(convertInfoMapper, rows);
+            log.debug("mysql加载成功, 共{}条记录, {}个源文件, {}", rows, sources,
+                    consistent ? "redis缓存与mysql一致, 跳过重建" : "已成功写入redis缓存");
             // 启动扫描
             startScan();
         } catch (Exception e) {
@@ -120,12 +200,21 @@ public class ConvertManager {
     }
 
     /**
-     * 设置定时任务, 每60秒扫描一次文件夹, 每5秒扫描一次任务列表
+     * 启动目录监控, 设置定时任务, 定期全量扫描文件夹, 每5秒扫描一次任务列表(两者都只作为兜底, 正常情况由目录监控和dispatch及时处理)
      */
     private static void startScan() {
         try {
-            // 扫描redis缓存中所有源文件夹, 并加入到任务队列missions, 每60s扫描一次
-            threadPoolTaskScheduler.getScheduledExecutor().scheduleWithFixedDelay(() -> {
+            ScheduledExecutorService scheduledExecutor = threadPoolTaskScheduler.getScheduledExecutor();
+            // 监控redis缓存中所有源文件夹, 新建或修改的文件写入完成后加入到任务队列missions
+            DirectoryWatcher.start(scheduledExecutor);
+            Set<Object> watchedDirs = RedisUtils.sGet(CustomizeConfig.instance().getRedisDirKey());
+            if (watchedDirs != null) {
+                for (Object dir : watchedDirs) {
+                    DirectoryWatcher.watch((String) dir);
+                }
+            }
+            // 全量扫描只作为兜底: 启动时补上停机期间新增的文件, 之后按rescan-seconds周期执行
+            Runnable rescan = () -> {
                 log.info("开始扫描redis中所有文件夹");
                 Set<Object> dirs = RedisUtils.sGet(CustomizeConfig.instance().getRedisDirKey());
                 if (dirs != null) {
@@ -138,27 +227,38 @@ public class ConvertManager {
                         }
                     }
                 }
-            }, 60, 60, TimeUnit.SECONDS);
+            };
+            int rescanSeconds = CustomizeConfig.instance().getRescanSeconds();
+            if (rescanSeconds > 0) {
+                scheduledExecutor.scheduleWithFixedDelay(rescan, 0, rescanSeconds, TimeUnit.SECONDS);
+            } else {
+                scheduledExecutor.execute(rescan);
+            }
 
             ThreadPoolExecutor threadPoolExecutor = threadPoolTaskExecutor.getThreadPoolExecutor();
-            // 扫描任务列表, 如果线程池空闲就启动新任务, 每5秒扫描一次
-            threadPoolTaskScheduler.getScheduledExecutor().scheduleWithFixedDelay(() -> {
+            // 兜底扫描任务列表, 如果线程池空闲就启动新任务, 每5秒扫描一次
+            scheduledExecutor.scheduleWithFixedDelay(() -> {
                 int activeCount = threadPoolExecutor.getActiveCount();
                 int queueSize = threadPoolExecutor.getQueue().size();
                 // 输出线程池状态
                 log.debug("ActiveCount: {}, QueueSize: {}", activeCount, queueSize);
                 // 用真实的线程池任务数代替threadCount
-                int realCount = activeCount + queueSize;
+                int realCount = activeCount + queueSize + partSlots.get();
                 threadCount.lazySet(realCount);
-                if (realCount < ThreadPoolConfig.getCapacity() && futures.size() < missions.size()) {
+                // 也用于重新检查因内存不足而延迟的任务(GC后存活内存可能已经下降)
+                if (realCount < ConcurrencyLimiter.getLimit() && futures.size() < missions.size()) {
                     startMissions();
                 }
-                // 显式调用gc, 释放内存
-                Runtime runtime = Runtime.getRuntime();
-                if (runtime.freeMemory() / (double) runtime.totalMemory() < GC) {
-                    runtime.gc();
-                }
             }, 5, 5, TimeUnit.SECONDS);
+            // 自适应并发控制, 上限增加后立即调度
+            if (ThreadPoolConfig.instance().isAdaptive()) {
+                int interval = Math.max(1, ThreadPoolConfig.instance().getAdaptiveIntervalSeconds());
+                scheduledExecutor.scheduleWithFixedDelay(() -> {
+                    if (ConcurrencyLimiter.adjust()) {
+                        dispatch();
+                    }
+                }, interval, interval, TimeUnit.SECONDS);
+            }
         } catch (Exception e) {
             log.error("扫描出错{}", e.getMessage(), e);
         }
@@ -181,20 +281,138 @@ public class ConvertManager {
      */
     public static void addMission(final String sourceFilePath,
                                   final String targetDirPath) {
+        addMission(sourceFilePath, targetDirPath, 0);
+    }
+
+    /**
+     * 添加单个文件任务, 使用自定义目的路径和优先级
+     *
+     * @param sourceFilePath 源文件路径
+     * @param targetDirPath  目的路径
+     * @param priority       优先级, 数值越大越优先(调度策略为PRIORITY时生效)
+     */
+    public static void addMission(final String sourceFilePath,
+                                  final String targetDirPath,
+                                  final int priority) {
         if (FileUtils.testSourceFile(sourceFilePath)) {
-            String targetDirPathWithSeparator = FileUtils.dealWithDir(targetDirPath);
-            String fileName = sourceFilePath.substring(sourceFilePath.lastIndexOf(File.separatorChar) + 1);
-            int index;
-            if ((index = fileName.indexOf(UPLOAD)) != -1) {
-                fileName = fileName.substring(index + UPLOAD.length());
+            createMission(sourceFilePath, FileUtils.dealWithDir(targetDirPath), priority);
+        }
+    }
+
+    /**
+     * 创建任务并唤醒调度, 调用前源文件已通过去重检查
+     *
+     * @param sourceFilePath             源文件路径
+     * @param targetDirPathWithSeparator 以分隔符结尾的目的路径
+     * @param priority                   优先级
+     */
+    static void createMission(final String sourceFilePath,
+                              final String targetDirPathWithSeparator,
+                              final int priority) {
+        enqueue(newMission(sourceFilePath, targetDirPathWithSeparator, priority));
+        // 唤醒调度, 立即启动任务
+        dispatch();
+    }
+
+    /**
+     * 批量添加文件任务: 一次完成校验、请求内去重和redis去重(管道批量写入), 所有新任务在同一轮调度之前一起加入任务列表
+     *
+     * @param items 每项包含source, 可选target(为空则使用默认目的路径)和priority
+     * @return 每项的结果(与items顺序相同): status为accepted(带任务id)、duplicate或error(带错误信息)
+     */
+    public static JSONArray addMissionBatch(final List<JSONObject> items) {
+        JSONArray results = new JSONArray();
+        // 源文件路径 -> 通过校验的项
+        Map<String, BatchEntry> entries = new LinkedHashMap<>();
+        // 目的路径 -> 以分隔符结尾的目的路径, 每个目的路径只检查一次
+        Map<String, String> targetDirs = new HashMap<>();
+        for (JSONObject item : items) {
+            JSONObject result = new JSONObject();
+            results.add(result);
+            String source = item.getString("source");
+            result.put("source", source);
+            try {
+                if (StringUtils.isEmpty(source) || !new File(source).isFile()) {
+                    throw new FileException.FileNotExistsException(source);
+                }
+                if (!DirectoryIngestor.isSupported(source)) {
+                    throw new IllegalArgumentException("不支持的文件类型");
+                }
+                if (entries.containsKey(source)) {
+                    result.put("status", BATCH_DUPLICATE);
+                    continue;
+                }
+                String target = item.getString("target");
+                if (StringUtils.isEmpty(target)) {
+                    target = CustomizeConfig.instance().getTargetDirPath();
+                }
+                String targetDir = targetDirs.computeIfAbsent(target.trim(), FileUtils::dealWithDir);
+                Integer priority = item.getInteger("priority");
+                entries.put(source, new BatchEntry(targetDir, priority == null ? 0 : priority, result));
+            } catch (Exception e) {
+                result.put("status", BATCH_ERROR);
+                result.put("message", e.getMessage());
+            }
+        }
+        // 已处理过的文件标记为重复, 其余已加入redis
+        Set<String> fresh = new HashSet<>(FileUtils.filterNewFiles(new ArrayList<>(entries.keySet())));
+        List<ConvertMission> created = new ArrayList<>(fresh.size());
+        for (Map.Entry<String, BatchEntry> entry : entries.entrySet()) {
+            BatchEntry batchEntry = entry.getValue();
+            if (!fresh.contains(entry.getKey())) {
+                batchEntry.result.put("status", BATCH_DUPLICATE);
+                continue;
+            }
+            ConvertMission mission = newMission(entry.getKey(), batchEntry.targetDir, batchEntry.priority);
+            created.add(mission);
+            batchEntry.result.put("status", BATCH_ACCEPTED);
+            batchEntry.result.put("id", mission.getMissionId());
+        }
+        // startMissions同样以ConvertManager.class为锁, 调度不会看到只加入了一部分的批次
+        synchronized (ConvertManager.class) {
+            for (ConvertMission mission : created) {
+                enqueue(mission);
             }
-            String targetFilePath = targetDirPathWithSeparator + fileName + ".pdf";
+        }
+        log.info("批量添加任务, 共{}项, 新任务{}个", items.size(), created.size());
+        if (!created.isEmpty()) {
+            dispatch();
+        }
+        return results;
+    }
 
-            Integer missionId = id.incrementAndGet();
-            ConvertMission mission = new ConvertMission(missionId, new ConvertInfo(sourceFilePath, targetFilePath));
-            missions.put(missionId, mission);
-            log.info("文件添加成功[{}]", sourceFilePath);
+    /**
+     * 根据源文件路径和目的路径创建任务, 分配任务id
+     *
+     * @param sourceFilePath             源文件路径
+     * @param targetDirPathWithSeparator 以分隔符结尾的目的路径
+     * @param priority                   优先级
+     * @return 任务
+     */
+    private static ConvertMission newMission(final String sourceFilePath,
+                                             final String targetDirPathWithSeparator,
+                                             final int priority) {
+        String fileName = sourceFilePath.substring(sourceFilePath.lastIndexOf(File.separatorChar) + 1);
+        int index;
+        if ((index = fileName.indexOf(UPLOAD)) != -1) {
+            fileName = fileName.substring(index + UPLOAD.length());
         }
+        String targetFilePath = targetDirPathWithSeparator + fileName + ".pdf";
+
+        Integer missionId = id.incrementAndGet();
+        return new ConvertMission(missionId, new ConvertInfo(sourceFilePath, targetFilePath), priority);
+    }
+
+    /**
+     * 将任务加入任务列表
+     *
+     * @param mission 任务
+     */
+    private static void enqueue(final ConvertMission mission) {
+        missions.put(mission.getMissionId(), mission);
+        markWaiting(mission);
+        ChangeFeed.register(mission.getMissionId(), mission.getConvertInfo());
+        log.info("文件添加成功[{}]", mission.getConvertInfo().getSourceFilePath());
     }
 
     /**
@@ -218,24 +436,86 @@ public class ConvertManager {
     public static void addMissions(final String sourceDirPath,
                                    final String targetDirPath,
                                    final boolean isScan) {
+        addMissions(sourceDirPath, targetDirPath, isScan, 0);
+    }
+
+    /**
+     * 添加文件夹任务, 使用自定义目的路径和优先级
+     *
+     * @param sourceDirPath 源文件夹路径
+     * @param targetDirPath 目的路径
+     * @param isScan        true代表是扫描, 不用检测目录是否在redis缓存中
+     * @param priority      优先级, 数值越大越优先(调度策略为PRIORITY时生效)
+     */
+    public static void addMissions(final String sourceDirPath,
+                                   final String targetDirPath,
+                                   final boolean isScan,
+                                   final int priority) {
         if (FileUtils.testSourceDir(sourceDirPath, isScan)) {
+            // 新加入的目录先开始监控再列出文件, 避免遗漏中间新建的文件
+            if (!isScan) {
+                DirectoryWatcher.watch(sourceDirPath);
+            }
             String targetDirPathWithSeparator = FileUtils.dealWithDir(targetDirPath);
-            String[] filePaths = FileUtils.listDir(sourceDirPath);
-            for (String filePath : filePaths) {
-                // 使用线程池并行添加文件夹内文件
-                threadPoolTaskScheduler.execute(() -> {
-                    // 防止文件夹内某个文件错误而影响文件夹内其他文件
+            // 在独立线程中流式遍历目录, 分批去重并创建任务
+            DirectoryIngestor.submit(sourceDirPath, sourceDirPath, targetDirPathWithSeparator, priority);
+            if (!isScan) {
+                log.info("目录添加成功[{}]", sourceDirPath);
+            }
+        }
+    }
+
+    /**
+     * 添加目录监控发现的文件, 使用默认目的路径
+     *
+     * @param root      文件所属的监控目录
+     * @param filePaths 写入完成的文件路径
+     */
+    static void addWatchedFiles(final String root,
+                                final List<String> filePaths) {
+        orchestrationExecutor.execute(() -> {
+            try {
+                String targetDirPathWithSeparator = FileUtils.dealWithDir(CustomizeConfig.instance().getTargetDirPath());
+                Path rootPath = Paths.get(root).toAbsolutePath();
+                List<String> supported = filePaths.stream().filter(DirectoryIngestor::isSupported).collect(Collectors.toList());
+                for (String filePath : FileUtils.filterNewFiles(supported)) {
                     try {
-                        addMission(filePath, targetDirPathWithSeparator);
+                        createMission(filePath, DirectoryIngestor.targetDirOf(rootPath, filePath, targetDirPathWithSeparator), 0);
                     } catch (Exception e) {
                         log.error("添加文件[{}]失败, 异常信息: {}", filePath, e.getMessage());
                     }
-                });
+                }
+            } catch (Exception e) {
+                log.error("添加监控文件失败, 异常信息: {}", e.getMessage());
             }
-            // 如果不是扫描任务, 则手动开始任务
-            if (!isScan) {
-                log.info("目录添加成功[{}]", sourceDirPath);
-                startMissions();
+        });
+    }
+
+    /**
+     * 遍历监控目录下的子目录(目录监控发现新目录或事件溢出时调用), 使用默认目的路径
+     *
+     * @param root 监控目录
+     * @param dir  需要遍历的目录
+     */
+    static void ingest(final String root,
+                       final String dir) {
+        DirectoryIngestor.submit(root, dir, FileUtils.dealWithDir(CustomizeConfig.instance().getTargetDirPath()), 0);
+    }
+
+    /**
+     * 等待中的任务数达到上限时阻塞, 直到有任务结束, 用于目录导入的背压
+     *
+     * @throws InterruptedException 等待时被中断
+     */
+    static void awaitIngestCapacity() throws InterruptedException {
+        int limit = CustomizeConfig.instance().getIngestMaxWaiting();
+        if (limit <= 0) {
+            return;
+        }
+        synchronized (INGEST_LOCK) {
+            while (missions.size() >= limit) {
+                // 超时后重新检查, 防止错过通知
+                INGEST_LOCK.wait(1000);
             }
         }
     }
@@ -251,49 +531,261 @@ public class ConvertManager {
     }
 
     /**
-     * 开始任务列表中所有任务
+     * 唤醒调度, 在调度线程池中启动等待中的任务
+     * 任务加入、完成、重试时调用, 短时间内的多次唤醒会合并为一次
+     */
+    public static void dispatch() {
+        if (dispatching.compareAndSet(false, true)) {
+            orchestrationExecutor.execute(() -> {
+                // 先重置标记, 保证执行期间的新唤醒不会丢失
+                dispatching.set(false);
+                try {
+                    startMissions();
+                } catch (Exception e) {
+                    log.error("任务调度出错", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * 任务进入等待状态, 下次调度时按调度策略的排序键加入等待队列
+     *
+     * @param mission 任务
+     */
+    static void markWaiting(final ConvertMission mission) {
+        mission.setScheduleKey(CustomizeConfig.instance().getSchedulePolicy().key(mission));
+        ARRIVALS.add(mission);
+    }
+
+    /**
+     * 按调度策略开始等待队列中的任务, 每次取各个未满通道队首中排序键最小的任务, 启动一个任务为O(log n)
+     * 加锁防止多次调度同时启动同一个任务
      */
-    private static void startMissions() {
-        Collection<ConvertMission> convertMissions = missions.ascendingMap().values();
-        for (ConvertMission mission : convertMissions) {
+    private static synchronized void startMissions() {
+        ConvertMission arrival;
+        while ((arrival = ARRIVALS.poll()) != null) {
+            WAITING.computeIfAbsent(arrival.getDocumentType(), key -> new PriorityQueue<>(ORDER)).add(arrival);
+        }
+        // 本轮已满的通道, 其中的任务留在队列中等待, 不占用转换线程
+        Set<DocumentType> full = new HashSet<>();
+        // 提交失败的任务, 本轮结束后放回队列
+        List<ConvertMission> failed = new ArrayList<>();
+        while (true) {
+            ConvertMission mission = null;
+            PriorityQueue<ConvertMission> queue = null;
+            for (Map.Entry<DocumentType, PriorityQueue<ConvertMission>> entry : WAITING.entrySet()) {
+                PriorityQueue<ConvertMission> candidates = entry.getValue();
+                // 只有状态为WAIT_OUTSIDE或RETRY的任务才能执行, 其余的已取消或已启动
+                while (!candidates.isEmpty() && !isWaiting(candidates.peek())) {
+                    candidates.poll();
+                }
+                if (candidates.isEmpty() || full.contains(entry.getKey())) {
+                    continue;
+                }
+                if (mission == null || ORDER.compare(candidates.peek(), mission) < 0) {
+                    mission = candidates.peek();
+                    queue = candidates;
+                }
+            }
+            if (mission == null) {
+                break;
+            }
             // 限制任务数
-            if (threadCount.get() >= ThreadPoolConfig.getCapacity()) {
+            if (threadCount.get() >= ConcurrencyLimiter.getLimit()) {
+                ConcurrencyLimiter.onLimitReached();
                 log.info("队列已满, 等待下一轮扫描");
-                return;
+                break;
             }
-            // 只有状态为WAIT_OUTSIDE或RETRY的任务才能执行
-            ConvertStatus status = mission.getConvertInfo().getStatus();
-            if (status == ConvertStatus.WAIT_OUTSIDE || status == ConvertStatus.RETRY) {
-                // threadCount+1
-                threadCount.incrementAndGet();
-                // 使用线程池启动任务
-                threadPoolTaskScheduler.execute(() -> {
-                    try {
-                        mission.startMission();
-                    } catch (Exception e) {
-                        log.error("任务执行出错", e);
-                    } finally {
-                        // threadCount-1
-                        threadCount.decrementAndGet();
-                    }
-                });
+            // 对应通道已满则跳过该通道
+            ConvertLane lane = ConvertLane.of(mission.getDocumentType());
+            if (lane != null && !lane.tryAcquire()) {
+                full.add(mission.getDocumentType());
+                continue;
+            }
+            // 内存余量不足时停止本轮调度, 等待任务结束或下一轮扫描, 后面的小任务也不能插队, 防止大任务饿死
+            long reservation = MemoryAdmission.tryReserve(mission);
+            if (reservation < 0) {
+                if (lane != null) {
+                    lane.release(false);
+                }
+                log.debug("内存余量不足, 延迟启动任务[{}]", mission.getMissionId());
+                break;
+            }
+            queue.poll();
+            mission.setMemoryReservation(reservation);
+            mission.setLane(lane);
+            // threadCount+1
+            threadCount.incrementAndGet();
+            // 先修改状态, 防止下一轮调度重复启动
+            mission.getConvertInfo().setStatus(ConvertStatus.WAIT_IN_POOL);
+            // 提交到任务执行线程池, 不阻塞调度线程, 结束后回调missionDone
+            try {
+                launcher.accept(mission);
+            } catch (Exception e) {
+                // 任务没有提交到线程池, 不会触发回调, 直接释放
+                log.error("任务执行出错", e);
+                mission.getConvertInfo().setStatus(ConvertStatus.WAIT_OUTSIDE);
+                MemoryAdmission.release(reservation);
+                release(lane, false);
+                failed.add(mission);
             }
         }
+        for (ConvertMission mission : failed) {
+            WAITING.get(mission.getDocumentType()).add(mission);
+        }
+        // 各通道等待的任务数(可能包含还没有丢弃的已取消任务)
+        for (DocumentType documentType : DocumentType.values()) {
+            PriorityQueue<ConvertMission> queue = WAITING.get(documentType);
+            ConvertLane.of(documentType).setWaiting(queue == null ? 0 : queue.size());
+        }
     }
 
     /**
-     * 获取所有任务的集合, 若是已完成任务, value就为-1, 否则为任务id, 可用于取消任务(返回json格式字符串)
+     * 判断任务是否在等待启动
      *
-     * @param cache true代表允许缓存, false代表禁止缓存
-     * @return 任务集合的json格式字符串
+     * @param mission 任务
+     * @return true代表状态为WAIT_OUTSIDE或RETRY
+     */
+    private static boolean isWaiting(final ConvertMission mission) {
+        ConvertStatus status = mission.getConvertInfo().getStatus();
+        return status == ConvertStatus.WAIT_OUTSIDE || status == ConvertStatus.RETRY;
+    }
+
+    /**
+     * 为同步转换占用线程池中的一个位置, 与排队的任务共用容量限制
+     *
+     * @return true代表成功
+     */
+    static boolean tryAcquireSlot() {
+        while (true) {
+            int current = threadCount.get();
+            if (current >= ConcurrencyLimiter.getLimit()) {
+                return false;
+            }
+            if (threadCount.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 为分段转换的其余各段占用位置, 每段同时占用一个位置和对应的转换通道
+     * 总数不超过线程池最大线程数(与CPU核数相当), 防止一个任务的各段占满所有CPU
+     *
+     * @param documentType 文档类别
+     * @param wanted       需要的位置数
+     * @return 实际占用的位置数
+     */
+    static int acquirePartSlots(final DocumentType documentType,
+                                final int wanted) {
+        int max = Math.min(ConcurrencyLimiter.getLimit(), ThreadPoolConfig.instance().getMaxPoolSize());
+        ConvertLane lane = ConvertLane.of(documentType);
+        int acquired = 0;
+        while (acquired < wanted) {
+            int current = threadCount.get();
+            if (current >= max) {
+                break;
+            }
+            if (!threadCount.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            if (lane != null && !lane.tryAcquire()) {
+                threadCount.decrementAndGet();
+                break;
+            }
+            acquired++;
+        }
+        partSlots.addAndGet(acquired);
+        return acquired;
+    }
+
+    /**
+     * 释放分段转换占用的位置, 并唤醒调度
+     *
+     * @param documentType 文档类别
+     * @param count        位置数
+     */
+    static void releasePartSlots(final DocumentType documentType,
+                                 final int count) {
+        ConvertLane lane = ConvertLane.of(documentType);
+        for (int i = 0; i < count; i++) {
+            if (lane != null) {
+                lane.release(false);
+            }
+        }
+        partSlots.addAndGet(-count);
+        threadCount.addAndGet(-count);
+        dispatch();
+    }
+
+    /**
+     * 释放同步转换占用的位置, 并唤醒调度
+     */
+    static void releaseSlot() {
+        threadCount.decrementAndGet();
+        dispatch();
+    }
+
+    /**
+     * 任务结束(成功、失败、重试或被线程池拒绝)时回调, 唤醒调度
+     * 转换已经开始时通道和位置由转换线程结束时释放(conversionEnded), 这里只释放没有开始运行的任务
+     *
+     * @param mission  结束的任务
+     * @param runnable 本次执行
+     */
+    static void missionDone(final ConvertMission mission,
+                            final ConvertRunnable runnable) {
+        // 被线程池拒绝的任务没有空出位置, 等待下一轮扫描
+        boolean bounced = mission.getConvertInfo().getStatus() == ConvertStatus.WAIT_OUTSIDE;
+        if (runnable.claim()) {
+            MemoryAdmission.release(runnable.getMemoryReservation());
+            release(runnable.getLane(), !bounced);
+        }
+        if (!bounced) {
+            dispatch();
+        }
+    }
+
+    /**
+     * 转换线程结束时调用, 释放通道、位置和预留的内存并唤醒调度
+     *
+     * @param lane              转换通道
+     * @param memoryReservation 预留的堆内存(字节)
+     */
+    static void conversionEnded(final ConvertLane lane,
+                                final long memoryReservation) {
+        MemoryAdmission.release(memoryReservation);
+        release(lane, true);
+        dispatch();
+    }
+
+    /**
+     * 释放转换通道和线程池中的位置
+     *
+     * @param lane     转换通道, 可以为null
+     * @param finished true代表任务已结束(计入吞吐量), false代表任务被退回等待
      */
-    public static String getAllConvertInfoOfJson(final boolean cache) {
-        // 如果所有任务状态没有改变, 直接返回Not Modified, 注意最后一批任务状态的刷新
-        if (cache && !modify) {
-            return "[\"Not Modified\"]";
-        } else {
-            modify = false;
+    private static void release(final ConvertLane lane,
+                                final boolean finished) {
+        if (lane != null) {
+            lane.release(finished);
         }
+        // threadCount-1
+        threadCount.decrementAndGet();
+        // 唤醒等待空位的目录导入
+        synchronized (INGEST_LOCK) {
+            INGEST_LOCK.notifyAll();
+        }
+    }
+
+    /**
+     * 获取所有任务的集合, id为任务id, 可用于取消任务; 启动前已完成的任务id为负数(返回json格式字符串)
+     * 之后的变化通过ChangeFeed增量获取
+     *
+     * @return 任务集合的json格式字符串
+     */
+    public static String getAllConvertInfoOfJson() {
         // 从missions中获取等待或正在运行的任务
         Set<Map.Entry<Integer, ConvertMission>> entries = missions.ascendingMap().entrySet();
         // 返回所有任务
@@ -304,18 +796,31 @@ public class ConvertManager {
             json.put("id", entry.getKey());
             result.add(json);
         }
-        // SynchronizedList对iterator没有上锁, 可能会报错ConcurrentModificationException
-        synchronized (FINISHED_INFO) {
-            // 已完成任务
-            for (ConvertInfo info : FINISHED_INFO) {
-                JSONObject json = (JSONObject) JSONObject.toJSON(info);
-                json.put("id", -1);
-                result.add(json);
-            }
+        // 已完成任务(只包含内存窗口中的记录, 更早的记录通过/getHistory分页获取)
+        List<Integer> ids = new ArrayList<>();
+        List<ConvertInfo> finished = FinishedHistory.snapshot(ids);
+        for (int i = 0; i < finished.size(); i++) {
+            JSONObject json = (JSONObject) JSONObject.toJSON(finished.get(i));
+            json.put("id", ids.get(i));
+            result.add(json);
         }
         return StringUtils.toJsonString(result);
     }
 
+    /**
+     * 分页获取已完成任务, 按结束顺序从新到旧
+     *
+     * @param page     页码, 从1开始
+     * @param size     每页数量
+     * @param statuses 状态过滤, 为空代表不过滤
+     * @return json对象: total符合条件的总数, rows当前页
+     */
+    public static JSONObject getFinishedInfoOfJson(final int page,
+                                                   final int size,
+                                                   final Set<ConvertStatus> statuses) {
+        return FinishedHistory.page(page, size, statuses);
+    }
+
     /**
      * Getter
      *
@@ -334,6 +839,15 @@ public class ConvertManager {
         return threadPoolTaskScheduler;
     }
 
+    /**
+     * Getter
+     *
+     * @return orchestrationExecutor
+     */
+    public static TaskExecutor getOrchestrationExecutor() {
+        return orchestrationExecutor;
+    }
+
     /**
      * Getter
      *
@@ -361,40 +875,49 @@ public class ConvertManager {
         return futures;
     }
 
-    /**
-     * Getter
-     *
-     * @return finishedInfo
-     */
-    public static List<ConvertInfo> getFinishedInfo() {
-        return FINISHED_INFO;
-    }
-
-    /**
-     * 设置修改状态
-     */
-    public static void modify() {
-        modify = true;
-    }
-
     /**
      * 初始化, 自动注入需要的Bean
      *
      * @param threadPoolTaskExecutor  任务转换线程池
      * @param threadPoolTaskScheduler 任务调度线程池
+     * @param orchestrationExecutor   流程控制执行器
      * @param convertInfoMapper       mapper, 用于读写mysql数据库
      */
     @Autowired
     private void init(final @Qualifier("threadPoolTaskExecutor") ThreadPoolTaskExecutor threadPoolTaskExecutor,
                       final @Qualifier("threadPoolTaskScheduler") ThreadPoolTaskScheduler threadPoolTaskScheduler,
+                      final @Qualifier("orchestrationExecutor") TaskExecutor orchestrationExecutor,
                       final @Qualifier("convertInfoMapper") ConvertInfoMapper convertInfoMapper) {
         log.debug("开始初始化ConvertManager");
         // 初始化AbstractConverter, 载入授权文件
         AbstractConverter.init();
+        // 预热转换器, 此时Tomcat还没有开始接收请求; 启用转换进程时由各子进程自己预热
+        if (!WorkerConfig.instance().isEnabled()) {
+            ConverterWarmup.run(AbstractConverter.getEnabledTypes(), CustomizeConfig.instance().getWarmupRounds());
+        }
+        setUp(threadPoolTaskExecutor, threadPoolTaskScheduler, orchestrationExecutor, convertInfoMapper);
+        log.debug("成功初始化ConvertManager");
+        // 进一步初始化, 主要是处理缓存数据
+        deepInit();
+    }
+
+    /**
+     * 初始化调度所需的状态, 不载入授权文件, 不读取数据库和Redis
+     *
+     * @param threadPoolTaskExecutor  任务转换线程池
+     * @param threadPoolTaskScheduler 任务调度线程池
+     * @param orchestrationExecutor   流程控制执行器
+     * @param convertInfoMapper       mapper, 用于读写mysql数据库
+     */
+    static void setUp(final ThreadPoolTaskExecutor threadPoolTaskExecutor,
+                      final ThreadPoolTaskScheduler threadPoolTaskScheduler,
+                      final TaskExecutor orchestrationExecutor,
+                      final ConvertInfoMapper convertInfoMapper) {
         // 获取合适capacity, 尽量避免map扩容（其中futures最大值为max-pool-size + queue-capacity, missions可能超过这个值）
         int capacity = (int) ((ThreadPoolConfig.getCapacity()) / 0.75) + 1;
         ConvertManager.threadPoolTaskExecutor = threadPoolTaskExecutor;
         ConvertManager.threadPoolTaskScheduler = threadPoolTaskScheduler;
+        ConvertManager.orchestrationExecutor = orchestrationExecutor;
         ConvertManager.convertInfoMapper = convertInfoMapper;
         id = new AtomicInteger(0);
         missions = new ConcurrentLinkedHashMap
@@ -405,9 +928,58 @@ public class ConvertManager {
                 .build();
         futures = new ConcurrentHashMap<>(capacity);
         threadCount = new AtomicInteger(0);
-        modify = false;
-        log.debug("成功初始化ConvertManager");
-        // 进一步初始化, 主要是处理缓存数据
-        deepInit();
+        partSlots = new AtomicInteger(0);
+        dispatching = new AtomicBoolean(false);
+        // 分段转换的各段与其他任务共用位置和通道
+        AbstractConverter.setSlotBudget(new AbstractConverter.SlotBudget() {
+            @Override
+            public int acquire(final DocumentType documentType,
+                               final int wanted) {
+                return acquirePartSlots(documentType, wanted);
+            }
+
+            @Override
+            public void release(final DocumentType documentType,
+                                final int count) {
+                releasePartSlots(documentType, count);
+            }
+        });
+        MemoryAdmission.init();
+        ConcurrencyLimiter.init();
+    }
+
+    /**
+     * 替换启动任务的方式
+     *
+     * @param launcher 接收已占用位置和通道的任务, 结束时需调用conversionEnded释放
+     */
+    static void setLauncher(final Consumer<ConvertMission> launcher) {
+        ConvertManager.launcher = launcher;
+    }
+
+    /**
+     * 批量添加中通过校验的一项
+     */
+    private static final class BatchEntry {
+        /**
+         * 以分隔符结尾的目的路径
+         */
+        private final String targetDir;
+        /**
+         * 优先级
+         */
+        private final int priority;
+        /**
+         * 返回给调用者的结果
+         */
+        private final JSONObject result;
+
+        private BatchEntry(final String targetDir,
+                           final int priority,
+                           final JSONObject result) {
+            this.targetDir = targetDir;
+            this.priority = priority;
+            this.result = result;
+        }
     }
 }
@@ -2,6 +2,8 @@ package com.converter.core;
 
 import com.converter.config.CustomizeConfig;
 import com.converter.constant.ConvertStatus;
+import com.converter.constant.DocumentType;
+import com.converter.converter.AbstractConverter;
 import com.converter.exception.ConvertException;
 import com.converter.exception.FileException;
 import com.converter.pojo.ConvertInfo;
@@ -11,9 +13,10 @@ import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
+import org.springframework.util.concurrent.ListenableFutureTask;
+
 import java.util.Arrays;
 import java.util.concurrent.CancellationException;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 /**
@@ -40,37 +43,119 @@ public class ConvertMission {
      * 任务对应的future
      */
     private Future<?> future;
+    /**
+     * 任务进入等待队列的时间(重试时重置), 用于统计调度等待时间
+     */
+    private long queueTime;
+    /**
+     * 任务优先级, 数值越大越优先(调度策略为PRIORITY时生效)
+     */
+    private int priority;
+    /**
+     * 文档类别, 不支持的类型为null
+     */
+    private DocumentType documentType;
+    /**
+     * 最近一次启动时占用的转换通道, 由本次执行的ConvertRunnable在转换线程结束时释放
+     */
+    private ConvertLane lane;
+    /**
+     * 最近一次启动时预留的堆内存(字节), 由本次执行的ConvertRunnable在转换线程结束时释放
+     */
+    private long memoryReservation;
+    /**
+     * 进入等待队列时按调度策略计算的排序键
+     */
+    private double scheduleKey;
 
     public ConvertMission(final Integer missionId,
                           final ConvertInfo convertInfo) {
+        this(missionId, convertInfo, 0);
+    }
+
+    public ConvertMission(final Integer missionId,
+                          final ConvertInfo convertInfo,
+                          final int priority) {
         this.missionId = missionId;
         this.convertInfo = convertInfo;
         this.future = null;
+        this.queueTime = System.currentTimeMillis();
+        this.priority = priority;
+        this.documentType = AbstractConverter.getDocumentType(convertInfo.getSourceFilePath());
+        this.lane = null;
+    }
+
+    /**
+     * 设置任务占用的转换通道
+     *
+     * @param lane 转换通道
+     */
+    void setLane(final ConvertLane lane) {
+        this.lane = lane;
+    }
+
+    /**
+     * 设置任务的排序键
+     *
+     * @param scheduleKey 排序键
+     */
+    void setScheduleKey(final double scheduleKey) {
+        this.scheduleKey = scheduleKey;
+    }
+
+    /**
+     * 设置任务预留的堆内存
+     *
+     * @param memoryReservation 字节数
+     */
+    void setMemoryReservation(final long memoryReservation) {
+        this.memoryReservation = memoryReservation;
     }
 
     /**
-     * 启动任务
+     * 启动任务, 提交到任务执行线程池后立即返回, 不阻塞等待
+     * 任务结束后通过回调处理成功、失败或重试
      */
     public void startMission() {
         ConvertRunnable runnable = new ConvertRunnable(this);
-        future = ConvertManager.getThreadPoolTaskExecutor().submit(runnable);
-        ConvertManager.getFutures().put(missionId, future);
-        convertInfo.setStatus(ConvertStatus.WAIT_IN_POOL);
+        ListenableFutureTask<Object> task = new ListenableFutureTask<>(runnable, null);
+        // 在提交之前设置future, 保证计时器和取消操作能获取到
+        future = task;
+        ConvertManager.getFutures().put(missionId, task);
+        // 回调可能在转换线程或计时器线程中触发, 切换到流程控制执行器处理, 避免占用这些线程
+        task.addCallback(
+                result -> ConvertManager.getOrchestrationExecutor().execute(() -> complete(runnable, null)),
+                ex -> ConvertManager.getOrchestrationExecutor().execute(() -> complete(runnable, ex)));
+        ConvertManager.getThreadPoolTaskExecutor().execute(task);
+    }
+
+    /**
+     * 任务结束后操作
+     *
+     * @param runnable 任务执行者
+     * @param e        异常, 为null代表任务成功
+     */
+    private void complete(final ConvertRunnable runnable,
+                          final Throwable e) {
         try {
-            // 阻塞等待
-            future.get();
-            // 任务成功
-            success();
-        } catch (Exception e) {
-            // 向runnable发送中断请求
-            runnable.interrupt();
-            // 取消任务
-            future.cancel(true);
-            // 任务失败
-            fail(e);
+            if (e == null) {
+                // 任务成功
+                success();
+            } else {
+                // 向runnable发送中断请求
+                runnable.interrupt();
+                // 取消任务
+                future.cancel(true);
+                // 任务失败
+                fail(e);
+            }
+        } catch (Exception ex) {
+            log.error("任务结束处理出错[{}]", convertInfo.getSourceFilePath(), ex);
         } finally {
             // 从futures中移除
             ConvertManager.getFutures().remove(missionId);
+            // 释放位置, 唤醒调度
+            ConvertManager.missionDone(this, runnable);
         }
     }
 
@@ -78,8 +163,10 @@ public class ConvertMission {
      * 任务成功后操作
      */
     private void success() {
-        convertInfo.setStatus(ConvertStatus.FINISH);
         convertInfo.setEndTime(System.currentTimeMillis());
+        convertInfo.setStatus(ConvertStatus.FINISH);
+        // 记录任务从加入到完成的总耗时
+        MissionStatistics.recordTurnaround(convertInfo.getEndTime() - convertInfo.getJoinTime());
         // 写入数据库
         save();
         log.info("任务转换完成, 耗时:{}秒[{}]", (convertInfo.getEndTime() - convertInfo.getStartTime()) / 1000.0, convertInfo.getSourceFilePath());
@@ -90,7 +177,7 @@ public class ConvertMission {
      *
      * @param e 异常
      */
-    private void fail(final Exception e) {
+    private void fail(final Throwable e) {
         // 源文件路径
         String sourceFilePath = convertInfo.getSourceFilePath();
         // 记录任务状态
@@ -117,17 +204,19 @@ public class ConvertMission {
             } else {
                 // 任务队列已满, 等待下一轮扫描
                 convertInfo.setStatus(ConvertStatus.WAIT_OUTSIDE);
+                ConvertManager.markWaiting(this);
                 return;
             }
-        } else if (e instanceof ExecutionException) {
-            Throwable cause = e.getCause();
-            error = cause == null ? "未知错误" : cause.getMessage();
+        } else {
+            // 回调中得到的是转换过程抛出的原始异常
+            error = e.getMessage() == null ? "未知错误" : e.getMessage();
             delete = false;
-            if (cause instanceof FileException.FileTypeException) {
+            if (e instanceof FileException.FileTypeException) {
                 log.error(error);
-            } else if (cause instanceof ConvertException.WordConvertException
-                    || cause instanceof ConvertException.CellConvertException
-                    || cause instanceof ConvertException.SlideConvertException) {
+            } else if (e instanceof ConvertException.WordConvertException
+                    || e instanceof ConvertException.CellConvertException
+                    || e instanceof ConvertException.SlideConvertException
+                    || e instanceof ConvertException.WorkerConvertException) {
                 /*if (retry()) {
                     retry = true;
                     log.error("任务转换出错, 进行重试, 重试次数:{}, 错误信息:[{}][{}]", convertInfo.getRetry(), error, sourceFilePath);
@@ -138,11 +227,6 @@ public class ConvertMission {
             } else {
                 log.error("任务出现未知错误[{}]", sourceFilePath, e);
             }
-        } else if (e instanceof InterruptedException) {
-            error = "任务中断";
-            log.error("任务中断[{}]", sourceFilePath);
-        } else {
-            log.error("任务出现未知错误[{}]", sourceFilePath, e);
         }
         // 修改任务状态
         if (!retry && status != ConvertStatus.CANCEL) {
@@ -156,10 +240,14 @@ public class ConvertMission {
         } else if (!Arrays.asList(exceptions.split(SEPARATOR)).contains(error)) {
             convertInfo.setExceptions(exceptions + SEPARATOR + error);
         }
+        // 状态变化之后才写入错误信息, 再记录一次变化
+        ChangeFeed.record(convertInfo);
         // 如果重试, 将任务移除并添加到队尾
         if (retry) {
+            queueTime = System.currentTimeMillis();
             ConcurrentLinkedHashMap<Integer, ConvertMission> missions = ConvertManager.getMissions();
             missions.put(missionId, missions.remove(missionId));
+            ConvertManager.markWaiting(this);
         }
         // 如果无法重试, 则移除并写入数据库
         else {
@@ -215,10 +303,12 @@ public class ConvertMission {
             if (!ConvertManager.getMissions().remove(missionId, this)) {
                 log.error("任务移除失败[{}]", missionId);
             }
-            ConvertManager.getFinishedInfo().add(convertInfo);
-            // 写入数据库
-            ConvertManager.getConvertInfoMapper().insert(convertInfo);
-            log.debug("写入数据库成功[{}]", convertInfo);
+            // 加入窗口和提交写入在同一把锁内, 保证窗口与数据库中的记录顺序一致
+            synchronized (FinishedHistory.class) {
+                FinishedHistory.add(missionId, convertInfo);
+                // 交给写入线程批量写入数据库
+                ConvertInfoWriter.submit(convertInfo);
+            }
         } catch (Exception e) {
             log.error("写入数据库失败, 错误信息:{}[{}]", e.getMessage(), convertInfo);
         }
@@ -3,15 +3,14 @@ package com.converter.core;
 import com.converter.config.CustomizeConfig;
 import com.converter.constant.ConvertStatus;
 import com.converter.converter.AbstractConverter;
-import com.converter.converter.impl.SlideConverter;
+import com.converter.converter.ConverterWarmup;
 import com.converter.pojo.ConvertInfo;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 转换任务具体执行者
@@ -20,10 +19,6 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 @Slf4j
 public class ConvertRunnable implements Runnable {
-    /**
-     * 可中断锁, 限制只有一个PPT转换线程
-     */
-    private static final Lock LOCK = new ReentrantLock();
     /**
      * 调用者, 用于传递参数
      */
@@ -36,42 +31,76 @@ public class ConvertRunnable implements Runnable {
      * 计时器
      */
     private ScheduledFuture<?> timer;
+    /**
+     * 本次执行占用的转换通道, 重试时任务会重新占用, 因此在创建时记录
+     */
+    private final ConvertLane lane;
+    /**
+     * 本次执行预留的堆内存(字节)
+     */
+    private final long memoryReservation;
+    /**
+     * 是否已被认领, 转换线程和任务回调中先认领的一方负责释放通道和位置
+     */
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
 
     public ConvertRunnable(final ConvertMission caller) {
         this.caller = caller;
         this.converter = null;
         this.timer = null;
+        this.lane = caller.getLane();
+        this.memoryReservation = caller.getMemoryReservation();
     }
 
     @Override
     public void run() {
-        // 获取转换信息
-        ConvertInfo convertInfo = caller.getConvertInfo();
-        // 获取源文件路径
-        String sourceFilePath = convertInfo.getSourceFilePath();
-        // 获取文档转换器
-        converter = AbstractConverter.getConverter(sourceFilePath);
-        // 限制PPT转换任务最多一个
-        if (converter instanceof SlideConverter) {
-            try {
-                // 获取可中断锁
-                LOCK.lockInterruptibly();
-                try {
-                    log.info("成功获取锁[{}]", sourceFilePath);
-                    proceed(convertInfo, sourceFilePath);
-                } finally {
-                    LOCK.unlock();
-                    log.info("成功释放锁[{}]", sourceFilePath);
-                }
-            } catch (InterruptedException ignored) {
-            }
+        // 回调已经认领, 说明任务在开始前被取消, 通道和位置已经释放
+        if (!claim()) {
+            return;
         }
-        // 其余转换任务不做限制
-        else {
+        try {
+            // 获取转换信息
+            ConvertInfo convertInfo = caller.getConvertInfo();
+            // 获取源文件路径
+            String sourceFilePath = convertInfo.getSourceFilePath();
+            // 获取文档转换器
+            converter = AbstractConverter.getConverter(sourceFilePath);
+            // 各类文档的并发数由ConvertLane在调度时限制, 这里直接转换
             proceed(convertInfo, sourceFilePath);
+        } finally {
+            // 超时取消时future的回调会立即触发, 而转换线程可能仍在运行(Words无法中断),
+            // 因此通道、位置和预留的内存在转换线程真正结束时才释放
+            ConvertManager.conversionEnded(lane, memoryReservation);
         }
     }
 
+    /**
+     * 认领本次执行
+     *
+     * @return true代表认领成功, 由调用者释放通道和位置
+     */
+    boolean claim() {
+        return claimed.compareAndSet(false, true);
+    }
+
+    /**
+     * 获取本次执行占用的转换通道
+     *
+     * @return 转换通道, 不支持的类型为null
+     */
+    ConvertLane getLane() {
+        return lane;
+    }
+
+    /**
+     * 获取本次执行预留的堆内存
+     *
+     * @return 字节数
+     */
+    long getMemoryReservation() {
+        return memoryReservation;
+    }
+
     /**
      * 具体转换操作
      */
@@ -82,6 +111,8 @@ public class ConvertRunnable implements Runnable {
             startTimer();
             // 设置任务开始时间（重试任务时重置开始时间）
             convertInfo.setStartTime(System.currentTimeMillis());
+            // 记录调度等待时间
+            MissionStatistics.recordQueueWait(convertInfo.getStartTime() - caller.getQueueTime());
             // 修改任务状态为RUN
             convertInfo.setStatus(ConvertStatus.RUN);
             // 获取重试次数
@@ -91,8 +122,23 @@ public class ConvertRunnable implements Runnable {
             } else {
                 log.info("任务开始重试, 重试次数:{}[{}]", retry, sourceFilePath);
             }
+            String targetFilePath = convertInfo.getTargetFilePath();
+            // 内容相同的文档已经转换过时, 直接复用缓存中的PDF
+            String cacheKey = ConvertCache.key(caller.getDocumentType(), sourceFilePath);
+            if (cacheKey != null && ConvertCache.fetch(cacheKey, targetFilePath)) {
+                log.info("任务命中转换缓存[{}]", sourceFilePath);
+                return;
+            }
             // 执行转换任务
-            converter.convert(sourceFilePath, convertInfo.getTargetFilePath());
+            long start = System.currentTimeMillis();
+            converter.convert(sourceFilePath, targetFilePath);
+            long millis = System.currentTimeMillis() - start;
+            ConverterWarmup.recordConversion(caller.getDocumentType(), millis);
+            ConcurrencyLimiter.recordConversion(caller.getDocumentType(), convertInfo.getFileSize(), millis);
+            // 写入转换缓存
+            if (cacheKey != null) {
+                ConvertCache.store(cacheKey, targetFilePath);
+            }
         } finally {
             // 结束计时器
             stopTimer();
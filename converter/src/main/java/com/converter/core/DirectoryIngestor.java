@@ -0,0 +1,295 @@
+package com.converter.core;
+
+import com.converter.config.CustomizeConfig;
+import com.converter.converter.AbstractConverter;
+import com.converter.utils.FileUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 目录导入, 用Files.walkFileTree流式遍历目录(可递归), 边遍历边分批去重、创建任务, 不在内存中保存整个文件列表
+ * 等待中的任务数达到ingest-max-waiting时暂停遍历, 直到有任务结束(背压), 防止百万级目录一次性塞满任务列表
+ * 每个监控目录(根目录)有自己的遍历队列, 同一根目录下的遍历依次执行, 不同根目录并行, 都不占用调度线程
+ * 某个大目录因背压暂停时只阻塞它自己的遍历线程, 其他目录(包括新添加的目录和事件溢出后的重新扫描)不受影响; 同一目录同时只有一个遍历
+ *
+ * @author Evan
+ */
+@Slf4j
+public final class DirectoryIngestor extends SimpleFileVisitor<Path> {
+    /**
+     * 每批去重的文件数
+     */
+    private static final int BATCH_SIZE = 1000;
+    /**
+     * 遍历线程编号
+     */
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+    /**
+     * 遍历线程, 每个有遍历的根目录占用一个线程, 空闲后回收
+     */
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ingest-" + THREAD_ID.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * 各根目录等待执行的遍历, 键存在代表该根目录已有线程在执行, 以自身为锁
+     */
+    private static final Map<String, Queue<Runnable>> QUEUES = new HashMap<>();
+    /**
+     * 正在遍历或排队的目录, 避免重复遍历
+     */
+    private static final Set<String> INGESTING = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 监控目录(根目录), 保持目录结构时以此计算相对路径
+     */
+    private final Path root;
+    /**
+     * 监控目录的原始路径, 与DirectoryWatcher中的记录保持一致
+     */
+    private final String rootName;
+    /**
+     * 开始遍历的目录, 可以是根目录的子目录
+     */
+    private final Path start;
+    /**
+     * 以分隔符结尾的目的路径
+     */
+    private final String targetDirPathWithSeparator;
+    /**
+     * 优先级
+     */
+    private final int priority;
+    /**
+     * 是否递归遍历子目录
+     */
+    private final boolean recursive;
+    /**
+     * 是否在目的路径下保持源目录结构
+     */
+    private final boolean mirror;
+    /**
+     * 当前批次的文件
+     */
+    private final List<String> batch = new ArrayList<>(BATCH_SIZE);
+    /**
+     * 遍历到的文件数
+     */
+    private long visited = 0;
+    /**
+     * 创建的任务数
+     */
+    private long created = 0;
+
+    private DirectoryIngestor(final String root,
+                              final String start,
+                              final String targetDirPathWithSeparator,
+                              final int priority) {
+        this.root = Paths.get(root).toAbsolutePath();
+        this.rootName = root;
+        this.start = Paths.get(start).toAbsolutePath();
+        this.targetDirPathWithSeparator = targetDirPathWithSeparator;
+        this.priority = priority;
+        this.recursive = CustomizeConfig.instance().isRecursive();
+        this.mirror = CustomizeConfig.instance().isMirrorTree();
+    }
+
+    /**
+     * 提交目录遍历, 立即返回
+     *
+     * @param root                       监控目录(根目录)
+     * @param start                      开始遍历的目录
+     * @param targetDirPathWithSeparator 以分隔符结尾的目的路径
+     * @param priority                   优先级
+     */
+    static void submit(final String root,
+                       final String start,
+                       final String targetDirPathWithSeparator,
+                       final int priority) {
+        if (!INGESTING.add(start)) {
+            log.debug("目录[{}]正在遍历, 跳过", start);
+            return;
+        }
+        Runnable task = () -> {
+            try {
+                new DirectoryIngestor(root, start, targetDirPathWithSeparator, priority).run();
+            } finally {
+                INGESTING.remove(start);
+            }
+        };
+        synchronized (QUEUES) {
+            Queue<Runnable> queue = QUEUES.get(root);
+            if (queue != null) {
+                // 该根目录已有线程在遍历, 排在它后面
+                queue.add(task);
+                return;
+            }
+            queue = new ArrayDeque<>();
+            queue.add(task);
+            QUEUES.put(root, queue);
+        }
+        EXECUTOR.execute(() -> drain(root));
+    }
+
+    /**
+     * 依次执行根目录的遍历, 队列为空时退出
+     *
+     * @param root 根目录
+     */
+    private static void drain(final String root) {
+        while (true) {
+            Runnable task;
+            synchronized (QUEUES) {
+                task = QUEUES.get(root).poll();
+                if (task == null) {
+                    QUEUES.remove(root);
+                    return;
+                }
+            }
+            task.run();
+        }
+    }
+
+    /**
+     * 是否是支持转换的文件, 在创建任务前按后缀名过滤
+     *
+     * @param path 文件路径
+     * @return true代表支持
+     */
+    static boolean isSupported(final String path) {
+        String name = path.substring(path.lastIndexOf(File.separatorChar) + 1);
+        // 排除~$临时文件
+        return !name.startsWith("~$") && AbstractConverter.getDocumentType(path) != null;
+    }
+
+    /**
+     * 获取文件对应的目的路径, 保持目录结构时为目的路径下与源文件相同的相对目录
+     *
+     * @param root                       监控目录(根目录)
+     * @param filePath                   文件路径
+     * @param targetDirPathWithSeparator 以分隔符结尾的目的路径
+     * @return 以分隔符结尾的目的路径
+     */
+    static String targetDirOf(final Path root,
+                              final String filePath,
+                              final String targetDirPathWithSeparator) {
+        if (!CustomizeConfig.instance().isMirrorTree()) {
+            return targetDirPathWithSeparator;
+        }
+        Path parent = Paths.get(filePath).toAbsolutePath().getParent();
+        if (parent == null || !parent.startsWith(root) || parent.equals(root)) {
+            return targetDirPathWithSeparator;
+        }
+        return FileUtils.dealWithDir(targetDirPathWithSeparator + root.relativize(parent).toString());
+    }
+
+    /**
+     * 遍历目录
+     */
+    private void run() {
+        long begin = System.currentTimeMillis();
+        try {
+            Files.walkFileTree(start, this);
+            flush();
+            log.info("目录遍历完成, 文件数:{}, 新任务数:{}, 耗时:{}秒[{}]",
+                    visited, created, (System.currentTimeMillis() - begin) / 1000.0, start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("目录[{}]遍历出错, 错误信息: {}", start, e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(final Path dir,
+                                             final BasicFileAttributes attrs) {
+        if (dir.equals(start)) {
+            return FileVisitResult.CONTINUE;
+        }
+        if (!recursive) {
+            return FileVisitResult.SKIP_SUBTREE;
+        }
+        // 递归模式下子目录同样需要监控
+        DirectoryWatcher.watch(dir.toString(), rootName);
+        return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(final Path file,
+                                     final BasicFileAttributes attrs) throws IOException {
+        if (!attrs.isRegularFile()) {
+            return FileVisitResult.CONTINUE;
+        }
+        visited++;
+        String path = file.toString();
+        if (isSupported(path)) {
+            batch.add(path);
+            if (batch.size() >= BATCH_SIZE) {
+                try {
+                    flush();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return FileVisitResult.TERMINATE;
+                }
+            }
+        }
+        return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFileFailed(final Path file,
+                                           final IOException e) {
+        // 无权限等错误只跳过当前文件或目录
+        log.warn("无法访问[{}]: {}", file, e.getMessage());
+        return FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * 当前批次去重并创建任务, 等待中的任务过多时先等待
+     *
+     * @throws InterruptedException 等待时被中断
+     */
+    private void flush() throws InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        ConvertManager.awaitIngestCapacity();
+        String lastDir = null;
+        String lastTarget = null;
+        for (String filePath : FileUtils.filterNewFiles(batch)) {
+            try {
+                // 同一目录下的文件连续出现, 缓存目的路径, 减少创建目录的检查
+                String dir = mirror ? new File(filePath).getParent() : null;
+                if (lastTarget == null || (dir != null && !dir.equals(lastDir))) {
+                    lastTarget = targetDirOf(root, filePath, targetDirPathWithSeparator);
+                    lastDir = dir;
+                }
+                ConvertManager.createMission(filePath, lastTarget, priority);
+                created++;
+            } catch (Exception e) {
+                log.error("添加文件[{}]失败, 异常信息: {}", filePath, e.getMessage());
+            }
+        }
+        batch.clear();
+    }
+}
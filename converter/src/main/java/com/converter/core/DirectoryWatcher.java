@@ -0,0 +1,485 @@
+package com.converter.core;
+
+import com.alibaba.fastjson.JSONObject;
+import com.converter.config.CustomizeConfig;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 目录监控, 只上报新建或修改的文件, 代替定时全量扫描目录
+ * 优先使用WatchService, 注册失败(或配置为轮询)的目录使用修改时间和大小快照轮询
+ * 文件在debounce时间内大小和修改时间都不再变化才认为写入完成, 避免转换写了一半的文件
+ *
+ * @author Evan
+ */
+@Slf4j
+public final class DirectoryWatcher {
+    /**
+     * 检查待定文件是否写入完成的间隔(毫秒)
+     */
+    private static final long CHECK_INTERVAL = 250;
+    /**
+     * Linux中inotify监控数上限的配置文件
+     */
+    private static final String INOTIFY_LIMIT_FILE = "/proc/sys/fs/inotify/max_user_watches";
+    /**
+     * 最多使用系统上限的比例, 上限按用户计算, 需要给同一用户的其他进程留出余量
+     */
+    private static final double LIMIT_RATIO = 0.9;
+    /**
+     * WatchService注册的目录, 键为WatchKey
+     */
+    private static final Map<WatchKey, String> WATCHED = new ConcurrentHashMap<>();
+    /**
+     * 所有监控中的目录 -> 所属的监控目录(根目录), 递归模式下子目录也会加入
+     */
+    private static final Map<String, String> ROOTS = new ConcurrentHashMap<>();
+    /**
+     * 轮询的目录, 键为目录路径
+     */
+    private static final Map<String, Snapshot> POLLED = new ConcurrentHashMap<>();
+    /**
+     * 等待写入完成的文件, 键为文件路径, 值中记录所属的监控目录
+     */
+    private static final Map<String, Pending> PENDING = new ConcurrentHashMap<>();
+    /**
+     * 收到的文件事件数(包括轮询发现的变化)
+     */
+    private static final AtomicLong EVENTS = new AtomicLong();
+    /**
+     * 上报的文件数
+     */
+    private static final AtomicLong REPORTED = new AtomicLong();
+    /**
+     * 达到上限后改为轮询的目录数
+     */
+    private static final AtomicLong DEGRADED = new AtomicLong();
+    /**
+     * 文件监控服务, 不支持时为null
+     */
+    private static WatchService watchService;
+    /**
+     * 系统允许的监控数(Linux的fs.inotify.max_user_watches), 未知时为0
+     */
+    private static long watchLimit = 0;
+    /**
+     * 是否已达到系统的监控数上限, 之后注册的目录直接使用快照轮询
+     */
+    private static volatile boolean limitReached = false;
+
+    private DirectoryWatcher() {
+    }
+
+    /**
+     * 启动监控线程和检查定时任务
+     *
+     * @param scheduler 定时任务执行器
+     */
+    static void start(final ScheduledExecutorService scheduler) {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            Thread thread = new Thread(DirectoryWatcher::processEvents, "directory-watcher");
+            thread.setDaemon(true);
+            thread.start();
+            watchLimit = readWatchLimit();
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("WatchService不可用, 所有目录使用快照轮询", e);
+            watchService = null;
+        }
+        scheduler.scheduleWithFixedDelay(DirectoryWatcher::checkPending, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        long pollMillis = Math.max(1, CustomizeConfig.instance().getWatchPollSeconds()) * 1000L;
+        scheduler.scheduleWithFixedDelay(DirectoryWatcher::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 开始监控目录
+     *
+     * @param dir 目录路径
+     */
+    public static void watch(final String dir) {
+        watch(dir, dir);
+    }
+
+    /**
+     * 开始监控目录
+     *
+     * @param dir  目录路径
+     * @param root 所属的监控目录, 目录本身就是监控目录时与dir相同
+     */
+    static void watch(final String dir,
+                      final String root) {
+        if (ROOTS.putIfAbsent(dir, root) != null) {
+            return;
+        }
+        if (watchService != null && !CustomizeConfig.instance().isWatchPolling() && !limitReached) {
+            if (watchLimit > 0 && WATCHED.size() >= watchLimit * LIMIT_RATIO) {
+                markLimitReached("已使用" + WATCHED.size() + "个, 系统上限" + watchLimit);
+            } else {
+                try {
+                    WatchKey key = Paths.get(dir).register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                    WATCHED.put(key, dir);
+                    log.debug("开始监控目录[{}]", dir);
+                    return;
+                } catch (IOException | UnsupportedOperationException e) {
+                    // inotify监控数用尽时Linux返回ENOSPC, JDK的错误信息为"User limit of inotify watches reached"
+                    String message = String.valueOf(e.getMessage());
+                    if (message.contains("inotify") || message.contains("No space left")) {
+                        markLimitReached(message);
+                    } else {
+                        log.warn("目录[{}]注册WatchService失败, 改为快照轮询: {}", dir, message);
+                    }
+                }
+            }
+        }
+        if (limitReached) {
+            DEGRADED.incrementAndGet();
+        }
+        POLLED.put(dir, new Snapshot(dir));
+        log.debug("开始轮询目录[{}]", dir);
+    }
+
+    /**
+     * 记录已达到监控数上限, 只输出一次日志
+     *
+     * @param reason 原因
+     */
+    private static synchronized void markLimitReached(final String reason) {
+        if (!limitReached) {
+            limitReached = true;
+            log.warn("WatchService监控数达到上限({}), 之后的目录改为快照轮询, 可调大fs.inotify.max_user_watches", reason);
+        }
+    }
+
+    /**
+     * 读取系统允许的监控数, 非Linux系统返回0
+     *
+     * @return 监控数上限
+     */
+    private static long readWatchLimit() {
+        File file = new File(INOTIFY_LIMIT_FILE);
+        if (!file.isFile()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim());
+        } catch (IOException | NumberFormatException e) {
+            log.debug("读取inotify监控数上限失败: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * 停止监控目录, 同时停止监控其下的子目录
+     *
+     * @param root 监控目录
+     */
+    public static void unwatch(final String root) {
+        ROOTS.entrySet().removeIf(entry -> root.equals(entry.getValue()));
+        WATCHED.entrySet().removeIf(entry -> {
+            if (!ROOTS.containsKey(entry.getValue())) {
+                entry.getKey().cancel();
+                return true;
+            }
+            return false;
+        });
+        POLLED.keySet().removeIf(dir -> !ROOTS.containsKey(dir));
+        PENDING.entrySet().removeIf(entry -> root.equals(entry.getValue().root));
+    }
+
+    /**
+     * 监控线程, 阻塞等待WatchService事件
+     */
+    private static void processEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            String dir = WATCHED.get(key);
+            String root = dir == null ? null : ROOTS.get(dir);
+            if (root != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // 事件丢失, 退回到全量扫描该目录
+                        log.warn("目录[{}]事件溢出, 全量扫描", dir);
+                        ConvertManager.ingest(root, dir);
+                        continue;
+                    }
+                    File file = Paths.get(dir).resolve((Path) event.context()).toFile();
+                    if (file.isDirectory()) {
+                        // 递归模式下新建的子目录: 遍历并监控, 遍历时注册监控, 不会遗漏其中已有的文件
+                        if (CustomizeConfig.instance().isRecursive()
+                                && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            ConvertManager.ingest(root, file.getAbsolutePath());
+                        }
+                        continue;
+                    }
+                    offer(root, file);
+                }
+            }
+            if (!key.reset()) {
+                // 目录已被删除或不可访问
+                WATCHED.remove(key);
+                if (dir != null) {
+                    ROOTS.remove(dir);
+                }
+                log.warn("目录[{}]已无法监控", dir);
+            }
+        }
+    }
+
+    /**
+     * 轮询目录, 目录修改时间未变化时只需一次stat
+     */
+    private static void poll() {
+        for (Snapshot snapshot : POLLED.values()) {
+            try {
+                snapshot.scan();
+            } catch (Exception e) {
+                log.error("轮询目录[{}]出错: {}", snapshot.dir, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 记录发生变化的文件, 等待写入完成
+     *
+     * @param root 所属的监控目录
+     * @param file 文件
+     */
+    private static void offer(final String root,
+                              final File file) {
+        // 排除~$临时文件, 与FileUtils.listDir保持一致
+        if (file.getName().startsWith("~$")) {
+            return;
+        }
+        EVENTS.incrementAndGet();
+        PENDING.compute(file.getAbsolutePath(), (path, pending) -> {
+            if (pending == null) {
+                return new Pending(root, file);
+            }
+            pending.touch();
+            return pending;
+        });
+    }
+
+    /**
+     * 检查待定文件, 写入完成的文件批量加入任务
+     */
+    private static void checkPending() {
+        if (PENDING.isEmpty()) {
+            return;
+        }
+        try {
+            long debounce = CustomizeConfig.instance().getWatchDebounceMillis();
+            long now = System.currentTimeMillis();
+            Map<String, List<String>> stable = new HashMap<>();
+            Iterator<Map.Entry<String, Pending>> iterator = PENDING.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Pending> entry = iterator.next();
+                Pending pending = entry.getValue();
+                File file = new File(entry.getKey());
+                if (!file.isFile()) {
+                    // 已删除或是目录
+                    iterator.remove();
+                } else if (now - pending.lastChange >= debounce && pending.stable(file)) {
+                    iterator.remove();
+                    stable.computeIfAbsent(pending.root, root -> new ArrayList<>()).add(entry.getKey());
+                }
+            }
+            for (Map.Entry<String, List<String>> entry : stable.entrySet()) {
+                REPORTED.addAndGet(entry.getValue().size());
+                ConvertManager.addWatchedFiles(entry.getKey(), entry.getValue());
+            }
+        } catch (Exception e) {
+            log.error("检查监控文件出错: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 获取监控状态
+     *
+     * @return json对象
+     */
+    public static JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("watched", WATCHED.size());
+        json.put("polled", POLLED.size());
+        json.put("watchLimit", watchLimit);
+        json.put("limitReached", limitReached);
+        json.put("degraded", DEGRADED.get());
+        json.put("pending", PENDING.size());
+        json.put("events", EVENTS.get());
+        json.put("reported", REPORTED.get());
+        return json;
+    }
+
+    /**
+     * 等待写入完成的文件
+     */
+    private static final class Pending {
+        /**
+         * 所属的监控目录
+         */
+        private final String root;
+        /**
+         * 最近一次发生变化的时间
+         */
+        private volatile long lastChange;
+        /**
+         * 最近一次检查时的大小
+         */
+        private long size;
+        /**
+         * 最近一次检查时的修改时间
+         */
+        private long modified;
+
+        Pending(final String root,
+                final File file) {
+            this.root = root;
+            this.lastChange = System.currentTimeMillis();
+            this.size = file.length();
+            this.modified = file.lastModified();
+        }
+
+        /**
+         * 收到新的事件
+         */
+        void touch() {
+            lastChange = System.currentTimeMillis();
+        }
+
+        /**
+         * 检查文件大小和修改时间是否与上次相同, 不同时记录新值并重新计时
+         *
+         * @param file 文件
+         * @return true代表没有变化
+         */
+        boolean stable(final File file) {
+            long currentSize = file.length();
+            long currentModified = file.lastModified();
+            if (currentSize == size && currentModified == modified) {
+                return true;
+            }
+            size = currentSize;
+            modified = currentModified;
+            touch();
+            return false;
+        }
+    }
+
+    /**
+     * 目录快照, 保存每个文件的修改时间和大小
+     */
+    private static final class Snapshot {
+        /**
+         * 目录路径
+         */
+        private final String dir;
+        /**
+         * 文件路径 -> {修改时间, 大小}
+         */
+        private Map<String, long[]> files = new HashMap<>();
+        /**
+         * 上次扫描时目录的修改时间
+         */
+        private long dirModified;
+
+        Snapshot(final String dir) {
+            this.dir = dir;
+            // 建立初始快照, 已有文件由启动时的全量扫描处理
+            scan(false);
+        }
+
+        /**
+         * 扫描目录, 上报新建或修改的文件
+         */
+        void scan() {
+            File directory = new File(dir);
+            long modified = directory.lastModified();
+            // 目录修改时间未变说明没有新建或删除文件, 只有原地修改的文件会被跳过(同一路径本来就会被去重);
+            // 仍有待定文件时需要继续扫描, 以便发现大小变化
+            if (modified == dirModified && !hasPending()) {
+                return;
+            }
+            scan(true);
+        }
+
+        /**
+         * 扫描目录
+         *
+         * @param report true代表上报变化的文件
+         */
+        private synchronized void scan(final boolean report) {
+            File directory = new File(dir);
+            dirModified = directory.lastModified();
+            File[] list = directory.listFiles();
+            if (list == null) {
+                return;
+            }
+            Map<String, long[]> current = new HashMap<>(list.length * 2);
+            for (File file : list) {
+                if (file.isDirectory()) {
+                    // 递归模式下新建的子目录: 遍历并监控
+                    String path = file.getAbsolutePath();
+                    if (report && CustomizeConfig.instance().isRecursive() && !ROOTS.containsKey(path)) {
+                        ConvertManager.ingest(ROOTS.getOrDefault(dir, dir), path);
+                    }
+                    continue;
+                }
+                if (!file.isFile()) {
+                    continue;
+                }
+                long[] stat = {file.lastModified(), file.length()};
+                String path = file.getAbsolutePath();
+                current.put(path, stat);
+                long[] old = files.get(path);
+                if (report && (old == null || old[0] != stat[0] || old[1] != stat[1])) {
+                    offer(ROOTS.getOrDefault(dir, dir), file);
+                }
+            }
+            files = current;
+        }
+
+        /**
+         * 是否有该目录下的待定文件
+         *
+         * @return true代表有
+         */
+        private boolean hasPending() {
+            String root = ROOTS.getOrDefault(dir, dir);
+            for (Pending pending : PENDING.values()) {
+                if (root.equals(pending.root)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.converter.core;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.converter.config.CustomizeConfig;
+import com.converter.constant.ConvertStatus;
+import com.converter.mapper.ConvertInfoMapper;
+import com.converter.pojo.ConvertInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 已完成任务(状态为FINISH、ERROR或CANCEL)的历史记录
+ * 内存中只保留最近history-window条, 按列存放在环形数组中(时间、大小等使用基本类型数组), 更早的记录从MySQL查询
+ * 按源文件路径和目的路径建立哈希索引, 预览验证为O(1), 长时间运行内存占用不增长
+ *
+ * @author Evan
+ */
+@Slf4j
+public final class FinishedHistory {
+    private static final ConvertStatus[] STATUSES = ConvertStatus.values();
+    /**
+     * 分页查询MySQL前等待写入线程的时间(毫秒)
+     */
+    private static final long FLUSH_TIMEOUT = 5000;
+    /**
+     * 窗口容量
+     */
+    private static int capacity;
+    /**
+     * 行id, 本次运行完成的任务为任务id, 启动时从数据库载入的记录为负数, 各不相同
+     */
+    private static int[] ids;
+    private static String[] sources;
+    private static String[] targets;
+    private static long[] fileSizes;
+    private static long[] joinTimes;
+    private static long[] startTimes;
+    private static long[] endTimes;
+    private static byte[] statuses;
+    private static int[] retries;
+    private static String[] exceptions;
+    /**
+     * 源文件路径 -> 最近一条记录的序号
+     */
+    private static Map<String, Long> bySource;
+    /**
+     * 目的路径 -> 最近一条记录的序号
+     */
+    private static Map<String, Long> byTarget;
+    /**
+     * 已写入的记录总数, 第n条记录存放在n % capacity位置
+     */
+    private static long count = 0;
+    /**
+     * 是否有记录不在窗口中(只能从MySQL查询)
+     */
+    private static boolean overflowed = false;
+    /**
+     * mapper, 用于查询窗口之外的记录
+     */
+    private static ConvertInfoMapper convertInfoMapper;
+
+    private FinishedHistory() {
+    }
+
+    /**
+     * 初始化, 从数据库载入最近的记录
+     *
+     * @param mapper 数据库mapper
+     * @param rows   数据库中的记录总数
+     */
+    static synchronized void init(final ConvertInfoMapper mapper,
+                                  final long rows) {
+        convertInfoMapper = mapper;
+        capacity = Math.max(1, CustomizeConfig.instance().getHistoryWindow());
+        ids = new int[capacity];
+        sources = new String[capacity];
+        targets = new String[capacity];
+        fileSizes = new long[capacity];
+        joinTimes = new long[capacity];
+        startTimes = new long[capacity];
+        endTimes = new long[capacity];
+        statuses = new byte[capacity];
+        retries = new int[capacity];
+        exceptions = new String[capacity];
+        bySource = new HashMap<>(capacity * 2);
+        byTarget = new HashMap<>(capacity * 2);
+        count = 0;
+        overflowed = rows > capacity;
+        // 查询结果从新到旧, 倒序加入
+        List<ConvertInfo> latest = mapper.getLatest(capacity);
+        for (int i = latest.size() - 1; i >= 0; i--) {
+            add(0, latest.get(i));
+        }
+    }
+
+    /**
+     * 加入一条记录, 窗口已满时覆盖最旧的记录
+     *
+     * @param missionId   任务id, 0代表从数据库载入的记录
+     * @param convertInfo 转换信息
+     */
+    public static synchronized void add(final int missionId,
+                                        final ConvertInfo convertInfo) {
+        long seq = count++;
+        int slot = (int) (seq % capacity);
+        if (seq >= capacity) {
+            // 移除被覆盖记录的索引(索引可能已指向更新的记录)
+            long old = seq - capacity;
+            bySource.remove(sources[slot], old);
+            byTarget.remove(targets[slot], old);
+            overflowed = true;
+        }
+        ids[slot] = missionId > 0 ? missionId : (int) -(seq + 1);
+        sources[slot] = convertInfo.getSourceFilePath();
+        targets[slot] = convertInfo.getTargetFilePath();
+        fileSizes[slot] = nullToZero(convertInfo.getFileSize());
+        joinTimes[slot] = nullToZero(convertInfo.getJoinTime());
+        startTimes[slot] = nullToZero(convertInfo.getStartTime());
+        endTimes[slot] = nullToZero(convertInfo.getEndTime());
+        statuses[slot] = (byte) convertInfo.getStatus().ordinal();
+        retries[slot] = convertInfo.getRetry() == null ? 0 : convertInfo.getRetry();
+        exceptions[slot] = convertInfo.getExceptions();
+        bySource.put(sources[slot], seq);
+        byTarget.put(targets[slot], seq);
+    }
+
+    /**
+     * 验证源文件和目的路径是否对应一条已完成任务, 先查内存索引, 窗口之外的记录查MySQL(目的路径有索引)
+     *
+     * @param source 源文件路径
+     * @param target 目的路径
+     * @return true代表存在
+     */
+    public static boolean contains(final String source,
+                                   final String target) {
+        synchronized (FinishedHistory.class) {
+            Long seq = byTarget.get(target);
+            if (seq != null && source.equals(sources[(int) (seq % capacity)])) {
+                return true;
+            }
+            seq = bySource.get(source);
+            if (seq != null && target.equals(targets[(int) (seq % capacity)])) {
+                return true;
+            }
+            if (!overflowed) {
+                return false;
+            }
+        }
+        return convertInfoMapper.countBySourceAndTarget(source, target) > 0;
+    }
+
+    /**
+     * 获取窗口中的所有记录, 从旧到新
+     *
+     * @param rowIds 用于接收每条记录对应的行id
+     * @return 转换信息
+     */
+    public static synchronized List<ConvertInfo> snapshot(final List<Integer> rowIds) {
+        int size = (int) Math.min(count, capacity);
+        List<ConvertInfo> result = new ArrayList<>(size);
+        for (long seq = count - size; seq < count; seq++) {
+            int slot = (int) (seq % capacity);
+            result.add(get(slot));
+            rowIds.add(ids[slot]);
+        }
+        return result;
+    }
+
+    /**
+     * 分页获取记录, 从新到旧, 请求的范围在窗口内时直接从内存获取, 否则查询MySQL
+     * 有记录不在窗口中时, 先等待写入线程把请求开始前已提交的记录写入MySQL, 使总数和窗口之外的分页都以同一份数据为准
+     *
+     * @param page   页码, 从1开始
+     * @param size   每页数量
+     * @param filter 状态过滤, 为空代表不过滤
+     * @return json对象: total符合条件的总数, rows当前页
+     */
+    public static JSONObject page(final int page,
+                                  final int size,
+                                  final Set<ConvertStatus> filter) {
+        long submitted = ConvertInfoWriter.getSubmitted();
+        long offset = (Math.max(1, page) - 1) * (long) size;
+        List<ConvertInfo> rows = new ArrayList<>(size);
+        List<Long> rowIds = new ArrayList<>(size);
+        long matched = 0;
+        boolean complete;
+        synchronized (FinishedHistory.class) {
+            complete = !overflowed;
+            int windowSize = (int) Math.min(count, capacity);
+            for (long seq = count - 1; seq >= count - windowSize; seq--) {
+                int slot = (int) (seq % capacity);
+                if (!filter.isEmpty() && !filter.contains(STATUSES[statuses[slot]])) {
+                    continue;
+                }
+                if (matched >= offset && rows.size() < size) {
+                    rows.add(get(slot));
+                    rowIds.add((long) ids[slot]);
+                }
+                matched++;
+            }
+        }
+        long total = matched;
+        if (!complete) {
+            if (!ConvertInfoWriter.flush(submitted, FLUSH_TIMEOUT)) {
+                log.warn("等待写入数据库超时, 历史记录总数可能不准确");
+            }
+            List<String> names = filter.stream().map(Enum::name).collect(Collectors.toList());
+            total = convertInfoMapper.countByStatus(names);
+            // 请求的范围超出窗口, 从MySQL获取
+            if (offset + size > matched) {
+                rows = convertInfoMapper.getPage(names, offset, size);
+                // 数据库中的记录没有任务id, 按位置生成负数id
+                rowIds.clear();
+                for (int i = 0; i < rows.size(); i++) {
+                    rowIds.add(-(offset + i + 1));
+                }
+            }
+        }
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < rows.size(); i++) {
+            JSONObject json = (JSONObject) JSONObject.toJSON(rows.get(i));
+            json.put("id", rowIds.get(i));
+            array.add(json);
+        }
+        JSONObject result = new JSONObject();
+        result.put("total", total);
+        result.put("rows", array);
+        return result;
+    }
+
+    /**
+     * 获取历史记录状态
+     *
+     * @return json对象
+     */
+    public static synchronized JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("capacity", capacity);
+        json.put("size", Math.min(count, capacity));
+        json.put("total", count);
+        json.put("overflowed", overflowed);
+        return json;
+    }
+
+    /**
+     * 根据位置还原转换信息
+     *
+     * @param slot 位置
+     * @return 转换信息
+     */
+    private static ConvertInfo get(final int slot) {
+        return new ConvertInfo(sources[slot], targets[slot], fileSizes[slot], joinTimes[slot], startTimes[slot],
+                endTimes[slot], STATUSES[statuses[slot]], retries[slot], exceptions[slot]);
+    }
+
+    private static long nullToZero(final Long value) {
+        return value == null ? 0 : value;
+    }
+}
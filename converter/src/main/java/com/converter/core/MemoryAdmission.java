@@ -0,0 +1,251 @@
+package com.converter.core;
+
+import com.alibaba.fastjson.JSONObject;
+import com.converter.config.CustomizeConfig;
+import com.converter.config.WorkerConfig;
+import com.converter.constant.DocumentType;
+import com.converter.converter.impl.CellConverter;
+import com.converter.converter.impl.WordConverter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.NotificationEmitter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存准入控制, 代替原来扫描时显式调用的gc
+ * 按文档类别和文件大小估算任务需要的堆内存, 启动任务前检查老年代的余量, 放不下的任务留在任务列表中等待, 而不是启动后堆溢出
+ * 老年代的存活内存取上次GC后的使用量(MemoryPoolMXBean.getCollectionUsage), 不受尚未回收的垃圾影响;
+ * GC后存活内存超过阈值时JVM发出通知, 此后暂停准入, 直到存活内存回落到阈值以下
+ * 启用转换进程时转换不占用本进程的堆, 不做检查
+ *
+ * @author Evan
+ */
+@Slf4j
+public final class MemoryAdmission {
+    /**
+     * 每个任务固定的内存开销(字节), 与文件大小无关(转换器对象、字体缓存等)
+     */
+    private static final long BASE_BYTES = 32L * 1024 * 1024;
+    /**
+     * 流式转换时每行在工作簿和排版中占用的大致字节数, 用于估算每段的内存
+     */
+    private static final long STREAM_ROW_BYTES = 1024;
+    /**
+     * 老年代内存池, 不支持时为null
+     */
+    private static MemoryPoolMXBean tenured = null;
+    /**
+     * 已启动任务预留的内存总和
+     */
+    private static long reserved = 0;
+    /**
+     * 没有任务运行时观察到的最小存活内存, 近似程序本身的占用
+     */
+    private static long baseline = Long.MAX_VALUE;
+    /**
+     * 是否处于内存压力下(GC后存活内存超过阈值)
+     */
+    private static volatile boolean pressure = false;
+    /**
+     * 因内存不足延迟启动的次数
+     */
+    private static final AtomicLong DELAYED = new AtomicLong();
+    /**
+     * 收到阈值通知的次数
+     */
+    private static final AtomicLong THRESHOLD_EXCEEDED = new AtomicLong();
+
+    private MemoryAdmission() {
+    }
+
+    /**
+     * 查找老年代内存池, 设置GC后使用量阈值并注册通知
+     */
+    static synchronized void init() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            // 堆中只有老年代同时支持使用量阈值和GC后使用量阈值
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                    && pool.isCollectionUsageThresholdSupported()) {
+                tenured = pool;
+                break;
+            }
+        }
+        if (tenured == null) {
+            log.warn("没有找到老年代内存池, 内存准入控制只使用估算值");
+            return;
+        }
+        tenured.setCollectionUsageThreshold((long) (maxBytes() * CustomizeConfig.instance().getMemoryThreshold()));
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener((notification, handback) -> {
+            if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                pressure = true;
+                THRESHOLD_EXCEEDED.incrementAndGet();
+                log.warn("GC后老年代存活内存超过阈值, 暂停启动新任务");
+            }
+        }, null, null);
+        log.info("内存准入控制使用内存池{}, 最大{}MB", tenured.getName(), maxBytes() / 1024 / 1024);
+    }
+
+    /**
+     * 估算任务需要的堆内存
+     *
+     * @param mission 任务
+     * @return 字节数
+     */
+    static long estimate(final ConvertMission mission) {
+        return estimate(mission.getDocumentType(), mission.getConvertInfo().getSourceFilePath(),
+                mission.getConvertInfo().getFileSize());
+    }
+
+    /**
+     * 估算转换需要的堆内存
+     * 分段转换时每段各有一份文档(Word为副本, Cell为重新加载的工作簿), 按段数放大; 流式转换只与每段的行数有关
+     *
+     * @param documentType   文档类别
+     * @param sourceFilePath 源文件路径(同步转换时为文件名)
+     * @param fileSize       文件大小
+     * @return 字节数
+     */
+    static long estimate(final DocumentType documentType,
+                         final String sourceFilePath,
+                         final long fileSize) {
+        long size = Math.max(0L, fileSize);
+        if (documentType == DocumentType.CELL && CellConverter.isStreaming(sourceFilePath, size)) {
+            return BASE_BYTES + CellConverter.getStreamChunkRows() * STREAM_ROW_BYTES;
+        }
+        double factor = documentType == null ? 1.0 : documentType.getHeapFactor();
+        int parts = 1;
+        if (documentType == DocumentType.WORD) {
+            parts = WordConverter.expectedParts(size);
+        } else if (documentType == DocumentType.CELL) {
+            parts = CellConverter.expectedParts(size);
+        }
+        return BASE_BYTES + (long) (size * factor * parts);
+    }
+
+    /**
+     * 尝试为任务预留内存, 余量不足时返回-1
+     *
+     * @param mission 任务
+     * @return 预留的字节数, 不检查时为0, 失败时为-1
+     */
+    static long tryReserve(final ConvertMission mission) {
+        return isEnabled() ? reserve(estimate(mission)) : 0;
+    }
+
+    /**
+     * 尝试为同步转换预留内存, 余量不足时返回-1
+     *
+     * @param documentType 文档类别
+     * @param fileName     文件名
+     * @param fileSize     文档大小
+     * @return 预留的字节数, 不检查时为0, 失败时为-1
+     */
+    static long tryReserve(final DocumentType documentType,
+                           final String fileName,
+                           final long fileSize) {
+        return isEnabled() ? reserve(estimate(documentType, fileName, fileSize)) : 0;
+    }
+
+    /**
+     * 是否检查内存
+     *
+     * @return true代表启用且不使用转换进程
+     */
+    private static boolean isEnabled() {
+        return CustomizeConfig.instance().isMemoryAdmission() && !WorkerConfig.instance().isEnabled();
+    }
+
+    /**
+     * 预留内存
+     * 估算值超过全部可用内存的转换在没有其他预留时仍然启动, 防止永远等待
+     *
+     * @param need 需要的字节数
+     * @return 预留的字节数, 失败时为-1
+     */
+    private static synchronized long reserve(final long need) {
+        long live = liveBytes();
+        if (reserved == 0) {
+            baseline = Math.min(baseline, live);
+            if (pressure && live < thresholdBytes()) {
+                pressure = false;
+            }
+        }
+        if (reserved > 0) {
+            // 存活内存中包含正在运行任务的实际占用, 与预留值取较大者, 避免重复计算
+            long used = Math.max(live, baseline + reserved);
+            long limit = (long) (maxBytes() * (1 - CustomizeConfig.instance().getMemoryReserveRatio()));
+            if (pressure || used + need > limit) {
+                DELAYED.incrementAndGet();
+                return -1;
+            }
+        }
+        reserved += need;
+        return need;
+    }
+
+    /**
+     * 释放任务预留的内存
+     *
+     * @param bytes 预留的字节数
+     */
+    static synchronized void release(final long bytes) {
+        if (bytes > 0) {
+            reserved = Math.max(0, reserved - bytes);
+        }
+    }
+
+    /**
+     * 老年代上次GC后的存活内存, 还没有发生过GC时使用当前使用量
+     *
+     * @return 字节数
+     */
+    private static long liveBytes() {
+        if (tenured == null) {
+            return 0;
+        }
+        long live = tenured.getCollectionUsage() == null ? 0 : tenured.getCollectionUsage().getUsed();
+        return live > 0 ? live : tenured.getUsage().getUsed();
+    }
+
+    /**
+     * 可用于转换的最大内存
+     *
+     * @return 字节数
+     */
+    private static long maxBytes() {
+        long max = tenured == null ? -1 : tenured.getUsage().getMax();
+        return max > 0 ? max : Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * 内存压力阈值
+     *
+     * @return 字节数
+     */
+    private static long thresholdBytes() {
+        return (long) (maxBytes() * CustomizeConfig.instance().getMemoryThreshold());
+    }
+
+    /**
+     * 获取内存准入状态
+     *
+     * @return json对象
+     */
+    public static synchronized JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("enabled", isEnabled());
+        json.put("pool", tenured == null ? null : tenured.getName());
+        json.put("max", maxBytes());
+        json.put("live", liveBytes());
+        json.put("baseline", baseline == Long.MAX_VALUE ? 0 : baseline);
+        json.put("reserved", reserved);
+        json.put("pressure", pressure);
+        json.put("delayed", DELAYED.get());
+        json.put("thresholdExceeded", THRESHOLD_EXCEEDED.get());
+        return json;
+    }
+}
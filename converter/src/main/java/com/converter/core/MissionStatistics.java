@@ -0,0 +1,161 @@
+package com.converter.core;
+
+import com.alibaba.fastjson.JSONObject;
+import com.converter.config.CustomizeConfig;
+import com.converter.config.ThreadPoolConfig;
+import com.converter.config.WorkerConfig;
+import com.converter.converter.ConverterWarmup;
+import com.converter.utils.FileUtils;
+import com.converter.worker.WorkerPool;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 任务统计信息, 用于观测调度性能
+ * 只保留最近的样本, 内存占用固定
+ *
+ * @author Evan
+ */
+public final class MissionStatistics {
+    /**
+     * 任务从入队到开始运行的等待时间(毫秒)
+     */
+    private static final Sampler QUEUE_WAIT = new Sampler(1024);
+    /**
+     * 成功任务从加入到完成的总耗时(毫秒), 用于对比不同调度策略
+     */
+    private static final Sampler TURNAROUND = new Sampler(1024);
+
+    private MissionStatistics() {
+    }
+
+    /**
+     * 记录任务从入队到开始运行的等待时间
+     *
+     * @param millis 等待时间(毫秒)
+     */
+    public static void recordQueueWait(final long millis) {
+        QUEUE_WAIT.record(millis);
+    }
+
+    /**
+     * 记录成功任务从加入到完成的总耗时
+     *
+     * @param millis 总耗时(毫秒)
+     */
+    public static void recordTurnaround(final long millis) {
+        TURNAROUND.record(millis);
+    }
+
+    /**
+     * 获取所有统计信息
+     *
+     * @return json对象
+     */
+    public static JSONObject toJson() {
+        JSONObject result = new JSONObject();
+        result.put("policy", CustomizeConfig.instance().getSchedulePolicy());
+        result.put("queueWait", QUEUE_WAIT.toJson());
+        result.put("turnaround", TURNAROUND.toJson());
+        result.put("lanes", ConvertLane.toJson());
+        result.put("cache", ConvertCache.toJson());
+        result.put("dedup", FileUtils.fileIndexJson());
+        result.put("watcher", DirectoryWatcher.toJson());
+        result.put("changeFeed", ChangeFeed.toJson());
+        result.put("history", FinishedHistory.toJson());
+        result.put("persist", ConvertInfoWriter.toJson());
+        result.put("sync", SyncConverter.toJson());
+        result.put("memory", MemoryAdmission.toJson());
+        result.put("concurrency", ConcurrencyLimiter.toJson());
+        result.put("startup", ConverterWarmup.toJson());
+        result.put("runtime", runtimeJson());
+        if (WorkerConfig.instance().isEnabled()) {
+            result.put("workers", WorkerPool.toJson());
+        }
+        return result;
+    }
+
+    /**
+     * 获取线程数和堆内存使用情况, 用于对比不同线程模式的资源占用
+     *
+     * @return json对象
+     */
+    private static JSONObject runtimeJson() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        JSONObject json = new JSONObject();
+        json.put("mode", ThreadPoolConfig.instance().getMode());
+        json.put("threads", threadBean.getThreadCount());
+        json.put("peakThreads", threadBean.getPeakThreadCount());
+        json.put("heapUsed", heap.getUsed());
+        json.put("heapCommitted", heap.getCommitted());
+        return json;
+    }
+
+    /**
+     * 环形样本池, 保存最近size个样本, 并计算平均值和分位数
+     */
+    static final class Sampler {
+        /**
+         * 样本
+         */
+        private final long[] samples;
+        /**
+         * 记录的样本总数
+         */
+        private final AtomicLong count = new AtomicLong();
+
+        Sampler(final int size) {
+            this.samples = new long[size];
+        }
+
+        /**
+         * 记录样本
+         *
+         * @param value 样本值
+         */
+        void record(final long value) {
+            long index = count.getAndIncrement();
+            samples[(int) (index % samples.length)] = value;
+        }
+
+        /**
+         * 获取统计结果(样本总数、平均值、p50、p99、最大值)
+         *
+         * @return json对象
+         */
+        JSONObject toJson() {
+            long total = count.get();
+            int size = (int) Math.min(total, samples.length);
+            long[] copy = Arrays.copyOf(samples, size);
+            Arrays.sort(copy);
+            JSONObject json = new JSONObject();
+            json.put("count", total);
+            json.put("mean", size == 0 ? 0 : Arrays.stream(copy).average().orElse(0));
+            json.put("p50", percentile(copy, 0.50));
+            json.put("p99", percentile(copy, 0.99));
+            json.put("max", size == 0 ? 0 : copy[size - 1]);
+            return json;
+        }
+
+        /**
+         * 计算分位数
+         *
+         * @param sorted  已排序的样本
+         * @param percent 分位(0~1)
+         * @return 分位数
+         */
+        private static long percentile(final long[] sorted,
+                                       final double percent) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percent * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.converter.core;
+
+import com.converter.config.CustomizeConfig;
+import com.converter.constant.DocumentType;
+import com.converter.pojo.ConvertInfo;
+
+/**
+ * 任务调度策略, 分数越小越先启动
+ * 除FIFO外都带有老化机制: 任务每等待aging-seconds秒, 分数减1, 防止任务饿死
+ *
+ * @author Evan
+ */
+@SuppressWarnings("AlibabaEnumConstantsMustHaveComment")
+public enum SchedulePolicy {
+    /**
+     * 先进先出, 按进入等待队列的时间排序
+     */
+    FIFO {
+        @Override
+        double baseScore(final ConvertMission mission) {
+            return 0;
+        }
+
+        @Override
+        boolean aging() {
+            return false;
+        }
+    },
+    /**
+     * 短作业优先, 根据文件大小和文档类别估算转换代价: 类别权重 * log2(文件大小)
+     * 文件大小取对数, 使老化能在有限时间内追平差距; 权重在对数之外, 类别之间的差距不会被对数抹平
+     */
+    SJF {
+        @Override
+        double baseScore(final ConvertMission mission) {
+            ConvertInfo convertInfo = mission.getConvertInfo();
+            DocumentType documentType = mission.getDocumentType();
+            double weight = documentType == null ? 1.0 : documentType.getCostWeight();
+            return weight * Math.log(Math.max(1L, convertInfo.getFileSize())) / Math.log(2);
+        }
+    },
+    /**
+     * 按调用者指定的优先级排序, 数值越大越优先
+     */
+    PRIORITY {
+        @Override
+        double baseScore(final ConvertMission mission) {
+            return -mission.getPriority();
+        }
+    };
+
+    /**
+     * 计算任务在等待队列中的排序键, 越小越先启动
+     * 分数 = 基础分数 - (当前时间 - 入队时间) / 老化周期, 所有任务的分数随时间同速减小, 两个任务的先后与当前时间无关,
+     * 因此使用 基础分数 + 入队时间 / 老化周期 作为排序键, 入队后不再变化, 可以放入优先队列
+     *
+     * @param mission 任务
+     * @return 排序键
+     */
+    public double key(final ConvertMission mission) {
+        if (!aging()) {
+            return mission.getQueueTime();
+        }
+        long agingMillis = Math.max(1, CustomizeConfig.instance().getAgingSeconds()) * 1000L;
+        return baseScore(mission) + mission.getQueueTime() / (double) agingMillis;
+    }
+
+    /**
+     * 不考虑等待时间的基础分数
+     *
+     * @param mission 任务
+     * @return 基础分数
+     */
+    abstract double baseScore(ConvertMission mission);
+
+    /**
+     * 是否启用老化
+     *
+     * @return true代表启用
+     */
+    boolean aging() {
+        return true;
+    }
+}
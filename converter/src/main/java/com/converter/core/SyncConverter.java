@@ -0,0 +1,159 @@
+package com.converter.core;
+
+import com.alibaba.fastjson.JSONObject;
+import com.converter.config.CustomizeConfig;
+import com.converter.constant.DocumentType;
+import com.converter.converter.AbstractConverter;
+import com.converter.exception.ConvertException;
+import com.converter.exception.FileException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 同步转换, 直接在内存中转换请求中的文档并返回PDF
+ * 不经过上传目录、目的目录、redis去重和任务列表, 但与排队的任务共用线程池容量、转换通道限制和超时时间
+ * 没有空位时立即拒绝而不是等待, 由调用者稍后重试
+ *
+ * @author Evan
+ */
+@Slf4j
+public final class SyncConverter {
+    /**
+     * 成功转换的耗时(毫秒)
+     */
+    private static final MissionStatistics.Sampler LATENCY = new MissionStatistics.Sampler(1024);
+    /**
+     * 请求次数
+     */
+    private static final AtomicLong REQUESTS = new AtomicLong();
+    /**
+     * 因没有空位被拒绝的次数
+     */
+    private static final AtomicLong REJECTED = new AtomicLong();
+    /**
+     * 超时次数
+     */
+    private static final AtomicLong TIMEOUTS = new AtomicLong();
+    /**
+     * 转换失败次数
+     */
+    private static final AtomicLong FAILURES = new AtomicLong();
+
+    private SyncConverter() {
+    }
+
+    /**
+     * 转换文档
+     *
+     * @param fileName 文件名, 根据后缀选择转换器
+     * @param content  文档内容
+     * @return PDF内容
+     * @throws TimeoutException     超过mission-timeout秒
+     * @throws ExecutionException   转换出错
+     * @throws InterruptedException 等待时被中断
+     */
+    public static byte[] convert(final String fileName,
+                                 final byte[] content) throws TimeoutException, ExecutionException, InterruptedException {
+        REQUESTS.incrementAndGet();
+        DocumentType documentType = AbstractConverter.getDocumentType(fileName);
+        if (documentType == null) {
+            throw new FileException.FileTypeException(fileName.substring(fileName.lastIndexOf(".") + 1));
+        }
+        if (!ConvertManager.tryAcquireSlot()) {
+            REJECTED.incrementAndGet();
+            throw new ConvertException.BusyException("线程池已满");
+        }
+        ConvertLane lane = ConvertLane.of(documentType);
+        if (!lane.tryAcquire()) {
+            ConvertManager.releaseSlot();
+            REJECTED.incrementAndGet();
+            throw new ConvertException.BusyException(documentType + "通道已满");
+        }
+        // 与排队的任务一样经过内存准入控制
+        long reservation = MemoryAdmission.tryReserve(documentType, fileName, content.length);
+        if (reservation < 0) {
+            lane.release(false);
+            ConvertManager.releaseSlot();
+            REJECTED.incrementAndGet();
+            throw new ConvertException.BusyException("内存余量不足");
+        }
+        long start = System.currentTimeMillis();
+        AbstractConverter converter = AbstractConverter.getConverter(fileName);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.max(1024, content.length));
+        // 转换线程和请求线程中先认领的一方负责释放, 转换开始后由转换线程在结束时释放(超时后转换可能仍在运行)
+        AtomicBoolean claimed = new AtomicBoolean(false);
+        Future<?> future = null;
+        try {
+            future = ConvertManager.getThreadPoolTaskExecutor().submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    converter.convert(new ByteArrayInputStream(content), outputStream);
+                } finally {
+                    release(lane, reservation);
+                }
+            });
+            future.get(CustomizeConfig.instance().getMissionTimeout(), TimeUnit.SECONDS);
+            LATENCY.record(System.currentTimeMillis() - start);
+            log.info("同步转换完成[{}], 耗时{}ms", fileName, System.currentTimeMillis() - start);
+            return outputStream.toByteArray();
+        } catch (TaskRejectedException e) {
+            REJECTED.incrementAndGet();
+            throw new ConvertException.BusyException("线程池拒绝");
+        } catch (TimeoutException e) {
+            TIMEOUTS.incrementAndGet();
+            throw e;
+        } catch (ExecutionException e) {
+            FAILURES.incrementAndGet();
+            throw e;
+        } finally {
+            if (future != null && !future.isDone()) {
+                // 超时或请求线程被中断, 与排队任务一样中断转换
+                converter.interrupt();
+                future.cancel(true);
+            }
+            // 转换没有开始(被拒绝或在队列中被取消)
+            if (claimed.compareAndSet(false, true)) {
+                release(lane, reservation);
+            }
+        }
+    }
+
+    /**
+     * 释放通道、位置和预留的内存
+     *
+     * @param lane        转换通道
+     * @param reservation 预留的内存
+     */
+    private static void release(final ConvertLane lane,
+                                final long reservation) {
+        MemoryAdmission.release(reservation);
+        lane.release(true);
+        ConvertManager.releaseSlot();
+    }
+
+    /**
+     * 获取同步转换统计信息
+     *
+     * @return json对象
+     */
+    public static JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("requests", REQUESTS.get());
+        json.put("rejected", REJECTED.get());
+        json.put("timeouts", TIMEOUTS.get());
+        json.put("failures", FAILURES.get());
+        json.put("latency", LATENCY.toJson());
+        return json;
+    }
+}
@@ -0,0 +1,351 @@
+package com.converter.core;
+
+import com.alibaba.fastjson.JSONObject;
+import com.converter.config.CustomizeConfig;
+import com.converter.exception.UploadException;
+import com.converter.utils.FileUtils;
+import com.converter.utils.RedisUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式分段上传
+ * 请求体直接写入上传目录下的.parts目录, 写入的同时计算SHA-256; 接收完成后重命名到上传目录(不再复制), 并加入任务
+ * 每个上传会话有一个.json元数据文件, 服务重启后可以按已写入的长度继续上传
+ * 内容与以前上传过的文件相同(SHA-256相同且文件仍存在)时不再重复转换
+ *
+ * @author Evan
+ */
+@Slf4j
+public final class UploadManager {
+    /**
+     * 未完成上传的存放目录
+     */
+    private static final String PARTS_DIR = ".parts";
+    /**
+     * 未完成上传的文件后缀
+     */
+    private static final String PART_SUFFIX = ".part";
+    /**
+     * 上传会话元数据文件后缀
+     */
+    private static final String META_SUFFIX = ".json";
+    /**
+     * 读写缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * 进行中的上传会话
+     */
+    private static final Map<String, Session> SESSIONS = new ConcurrentHashMap<>();
+
+    private UploadManager() {
+    }
+
+    /**
+     * 创建上传会话
+     *
+     * @param name       文件名
+     * @param size       文件大小
+     * @param targetPath 目的路径, 为空则使用默认目的路径
+     * @param priority   优先级
+     * @return json对象: id上传id, offset已接收长度
+     * @throws IOException 创建文件失败
+     */
+    public static JSONObject create(final String name,
+                                    final long size,
+                                    final String targetPath,
+                                    final int priority) throws IOException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("上传文件不能为空文件");
+        }
+        purgeExpired();
+        Session session = new Session(UUID.randomUUID().toString().replace("-", ""));
+        // 只保留文件名, 防止路径穿越
+        session.name = new File(name).getName();
+        session.size = size;
+        session.targetPath = targetPath == null || "".equals(targetPath.trim())
+                ? CustomizeConfig.instance().getTargetDirPath() : targetPath.trim();
+        session.priority = priority;
+        session.digest = newDigest();
+        Files.createDirectories(partsDir());
+        Files.createFile(session.part());
+        JSONObject meta = new JSONObject();
+        meta.put("name", session.name);
+        meta.put("size", session.size);
+        meta.put("targetPath", session.targetPath);
+        meta.put("priority", session.priority);
+        Files.write(session.meta(), meta.toJSONString().getBytes(StandardCharsets.UTF_8));
+        SESSIONS.put(session.id, session);
+        log.debug("创建上传会话[{}]{}, 大小{}", session.id, session.name, size);
+        return session.toJson();
+    }
+
+    /**
+     * 获取上传会话状态, 用于断点续传
+     *
+     * @param id 上传id
+     * @return json对象: id上传id, offset已接收长度, size文件大小
+     */
+    public static JSONObject status(final String id) {
+        Session session = session(id);
+        synchronized (session) {
+            return session.toJson();
+        }
+    }
+
+    /**
+     * 从offset开始写入一段内容, 接收完成后加入任务
+     *
+     * @param id          上传id
+     * @param offset      分段起始位置, 必须等于已接收长度
+     * @param inputStream 请求体
+     * @return json对象: 完成时带有sha256、path和duplicate(内容与以前上传的文件相同)
+     * @throws IOException 读写失败, 已写入的部分保留, 可以从status返回的位置继续
+     */
+    public static JSONObject append(final String id,
+                                    final long offset,
+                                    final InputStream inputStream) throws IOException {
+        Session session = session(id);
+        synchronized (session) {
+            if (session.offset != offset) {
+                throw new UploadException.OffsetMismatchException(session.offset);
+            }
+            try (FileChannel channel = FileChannel.open(session.part(), StandardOpenOption.WRITE)) {
+                channel.position(offset);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int length;
+                while ((length = inputStream.read(buffer)) != -1) {
+                    if (session.offset + length > session.size) {
+                        throw new UploadException.SizeExceededException(session.size);
+                    }
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+                    while (byteBuffer.hasRemaining()) {
+                        channel.write(byteBuffer);
+                    }
+                    session.digest.update(buffer, 0, length);
+                    session.offset += length;
+                }
+            } finally {
+                session.lastActive = System.currentTimeMillis();
+            }
+            JSONObject result = session.toJson();
+            if (session.offset == session.size) {
+                finish(session, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 接收完成, 移动到上传目录并加入任务
+     * 移动和加入任务都成功后才移除会话和元数据, 失败时客户端可以用相同的offset重新提交空内容重试
+     *
+     * @param session 上传会话
+     * @param result  返回结果
+     * @throws IOException 移动失败
+     */
+    private static void finish(final Session session,
+                               final JSONObject result) throws IOException {
+        // digest()会重置摘要, 只计算一次, 重试时使用同一个结果
+        if (session.sha256 == null) {
+            StringBuilder builder = new StringBuilder();
+            for (byte b : session.digest.digest()) {
+                builder.append(String.format("%02x", b));
+            }
+            session.sha256 = builder.toString();
+        }
+        String sha256 = session.sha256;
+        String hashKey = CustomizeConfig.instance().getRedisFileKey() + "_UPLOAD_SHA256";
+        result.put("sha256", sha256);
+        Object existing = session.path == null ? RedisUtils.hget(hashKey, sha256) : null;
+        if (existing != null && new File(existing.toString()).isFile()) {
+            // 相同内容已经上传过, 不再重复转换
+            Files.deleteIfExists(session.part());
+            remove(session);
+            result.put("path", existing.toString());
+            result.put("duplicate", true);
+            log.info("上传文件{}与{}内容相同, 不再重复转换", session.name, existing);
+            return;
+        }
+        // 上次重试已经移动过时不再移动
+        if (session.path == null) {
+            String filePath = FileUtils.dealWithDir(CustomizeConfig.instance().getUploadPath())
+                    + System.currentTimeMillis() + ConvertManager.UPLOAD + session.name;
+            // .parts在上传目录下, 同一文件系统内只是重命名
+            Files.move(session.part(), Paths.get(filePath), StandardCopyOption.ATOMIC_MOVE);
+            session.path = filePath;
+        }
+        ConvertManager.addMission(session.path, session.targetPath, session.priority);
+        RedisUtils.hset(hashKey, sha256, session.path);
+        remove(session);
+        result.put("path", session.path);
+        result.put("duplicate", false);
+        log.debug("上传完成[{}]{}, sha256={}", session.id, session.path, sha256);
+    }
+
+    /**
+     * 移除已完成的上传会话和元数据
+     *
+     * @param session 上传会话
+     * @throws IOException 删除元数据失败
+     */
+    private static void remove(final Session session) throws IOException {
+        SESSIONS.remove(session.id);
+        Files.deleteIfExists(session.meta());
+    }
+
+    /**
+     * 获取上传会话, 内存中没有时(服务重启过)从元数据文件恢复, 并重新计算已写入部分的摘要
+     *
+     * @param id 上传id
+     * @return 上传会话
+     */
+    private static Session session(final String id) {
+        if (id == null || !id.matches("[0-9a-f]{32}")) {
+            throw new UploadException.SessionNotFoundException(id);
+        }
+        Session session = SESSIONS.get(id);
+        if (session != null) {
+            return session;
+        }
+        synchronized (SESSIONS) {
+            session = SESSIONS.get(id);
+            if (session != null) {
+                return session;
+            }
+            session = new Session(id);
+            try {
+                JSONObject meta = JSONObject.parseObject(new String(Files.readAllBytes(session.meta()), StandardCharsets.UTF_8));
+                session.name = meta.getString("name");
+                session.size = meta.getLongValue("size");
+                session.targetPath = meta.getString("targetPath");
+                session.priority = meta.getIntValue("priority");
+                session.digest = newDigest();
+                try (InputStream inputStream = Files.newInputStream(session.part())) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int length;
+                    while ((length = inputStream.read(buffer)) != -1) {
+                        session.digest.update(buffer, 0, length);
+                        session.offset += length;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UploadException.SessionNotFoundException(id);
+            }
+            log.debug("恢复上传会话[{}]{}, 已接收{}", id, session.name, session.offset);
+            SESSIONS.put(id, session);
+            return session;
+        }
+    }
+
+    /**
+     * 清理超过upload-expire-hours未活动的上传
+     */
+    private static void purgeExpired() {
+        long expire = System.currentTimeMillis()
+                - TimeUnit.HOURS.toMillis(Math.max(1, CustomizeConfig.instance().getUploadExpireHours()));
+        SESSIONS.values().removeIf(session -> session.lastActive < expire);
+        File[] files = partsDir().toFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            String id = name.substring(0, Math.max(0, name.lastIndexOf('.')));
+            if (file.lastModified() < expire && !SESSIONS.containsKey(id) && file.delete()) {
+                log.debug("清理过期的上传文件{}", file);
+            }
+        }
+    }
+
+    /**
+     * 获取未完成上传的存放目录
+     *
+     * @return 目录
+     */
+    private static Path partsDir() {
+        return Paths.get(CustomizeConfig.instance().getUploadPath(), PARTS_DIR).toAbsolutePath();
+    }
+
+    /**
+     * 创建SHA-256摘要
+     *
+     * @return 摘要
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 上传会话
+     */
+    private static final class Session {
+        private final String id;
+        private String name;
+        private long size;
+        private String targetPath;
+        private int priority;
+        /**
+         * 已接收长度
+         */
+        private long offset = 0;
+        /**
+         * 已接收内容的摘要
+         */
+        private MessageDigest digest;
+        /**
+         * 已接收内容的sha256, 接收完成后计算
+         */
+        private String sha256;
+        /**
+         * 移动到上传目录后的路径
+         */
+        private String path;
+        /**
+         * 最后活动时间
+         */
+        private long lastActive = System.currentTimeMillis();
+
+        private Session(final String id) {
+            this.id = id;
+        }
+
+        private Path part() {
+            return partsDir().resolve(id + PART_SUFFIX);
+        }
+
+        private Path meta() {
+            return partsDir().resolve(id + META_SUFFIX);
+        }
+
+        private JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("id", id);
+            json.put("offset", offset);
+            json.put("size", size);
+            return json;
+        }
+    }
+}
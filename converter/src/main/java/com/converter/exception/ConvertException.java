@@ -49,4 +49,37 @@ public class ConvertException {
             super(String.format("Slide文件转换出错:[%s]", e.getMessage()));
         }
     }
+
+    public static class WorkerConvertException extends RuntimeException {
+        /**
+         * 转换进程中文件转换出现的异常
+         *
+         * @param msg 异常信息
+         */
+        public WorkerConvertException(final String msg) {
+            super(String.format("转换进程返回错误:[%s]", msg));
+        }
+    }
+
+    public static class BusyException extends RuntimeException {
+        /**
+         * 同步转换时线程池或转换通道已满
+         *
+         * @param msg 异常信息
+         */
+        public BusyException(final String msg) {
+            super(String.format("转换繁忙:[%s]", msg));
+        }
+    }
+
+    public static class WorkerException extends RuntimeException {
+        /**
+         * 转换进程本身出现的异常(启动失败、崩溃或被终止)
+         *
+         * @param e 异常
+         */
+        public WorkerException(final Exception e) {
+            super(String.format("转换进程异常:[%s]", e.getMessage()));
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package com.converter.exception;
+
+/**
+ * 分段上传过程中的异常
+ *
+ * @author Evan
+ */
+public class UploadException {
+    public static class SessionNotFoundException extends RuntimeException {
+        /**
+         * 上传会话不存在或已过期
+         *
+         * @param id 上传id
+         */
+        public SessionNotFoundException(final String id) {
+            super(String.format("上传会话不存在或已过期:[%s]", id));
+        }
+    }
+
+    public static class OffsetMismatchException extends RuntimeException {
+        /**
+         * 服务端已接收的长度
+         */
+        private final long offset;
+
+        /**
+         * 分段的起始位置与服务端已接收的长度不一致
+         *
+         * @param offset 服务端已接收的长度
+         */
+        public OffsetMismatchException(final long offset) {
+            super(String.format("分段起始位置错误, 已接收:[%d]", offset));
+            this.offset = offset;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+    }
+
+    public static class SizeExceededException extends RuntimeException {
+        /**
+         * 上传内容超过创建会话时声明的文件大小
+         *
+         * @param size 声明的文件大小
+         */
+        public SizeExceededException(final long size) {
+            super(String.format("上传内容超出声明的文件大小:[%d]", size));
+        }
+    }
+}
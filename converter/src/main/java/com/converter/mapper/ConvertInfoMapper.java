@@ -31,14 +31,36 @@ public interface ConvertInfoMapper {
             + "#{exceptions, jdbcType=CLOB})")
     void insert(ConvertInfo convertInfo);
 
+    /**
+     * 将多条转换信息写入数据库(一条多行INSERT语句)
+     *
+     * @param convertInfos 转换信息
+     */
+    @Insert({"<script>",
+            "INSERT INTO `convert_info` ( source_path, target_path, file_size, join_time, start_time, end_time, convert_status, retry, exceptions ) VALUES",
+            "<foreach collection='list' item='info' separator=','>",
+            "( #{info.sourceFilePath, jdbcType=VARCHAR}, ",
+            "#{info.targetFilePath, jdbcType=VARCHAR}, ",
+            "#{info.fileSize, jdbcType=BIGINT}, ",
+            "#{info.joinTime, jdbcType=BIGINT}, ",
+            "#{info.startTime, jdbcType=BIGINT}, ",
+            "#{info.endTime, jdbcType=BIGINT}, ",
+            "#{info.status, jdbcType=VARCHAR}, ",
+            "#{info.retry, jdbcType=INTEGER}, ",
+            "#{info.exceptions, jdbcType=CLOB} )",
+            "</foreach>",
+            "</script>"})
+    void insertBatch(@Param("list") List<ConvertInfo> convertInfos);
+
 
     /**
-     * 读取数据库中所有转换信息
+     * 读取最近写入的转换信息
      *
-     * @return 信息列表
+     * @param limit 数量
+     * @return 信息列表, 从新到旧
      */
-    @Select("SELECT source_path, target_path, file_size, join_time, start_time, end_time, convert_status, retry, exceptions FROM `convert_info`")
-    @Results({
+    @Select("SELECT source_path, target_path, file_size, join_time, start_time, end_time, convert_status, retry, exceptions FROM `convert_info` ORDER BY id DESC LIMIT #{limit}")
+    @Results(id = "convertInfo", value = {
             @Result(property = "sourceFilePath", column = "source_path", javaType = String.class),
             @Result(property = "targetFilePath", column = "target_path", javaType = String.class),
             @Result(property = "fileSize", column = "file_size", javaType = Long.class),
@@ -49,5 +71,77 @@ public interface ConvertInfoMapper {
             @Result(property = "retry", column = "retry", javaType = Integer.class),
             @Result(property = "exceptions", column = "exceptions", javaType = String.class)
     })
-    List<ConvertInfo> getAll();
+    List<ConvertInfo> getLatest(@Param("limit") int limit);
+
+    /**
+     * 读取id在(from, to]范围内的源文件路径, 用于启动时按主键分段加载
+     *
+     * @param from 起始id(不包含)
+     * @param to   结束id(包含)
+     * @return 源文件路径
+     */
+    @Select("SELECT source_path FROM `convert_info` WHERE id > #{from} AND id <= #{to}")
+    List<String> getSourcePaths(@Param("from") long from,
+                                @Param("to") long to);
+
+    /**
+     * 获取最大id
+     *
+     * @return 最大id, 没有记录时为0
+     */
+    @Select("SELECT IFNULL(MAX(id), 0) FROM `convert_info`")
+    long getMaxId();
+
+    /**
+     * 统计不同的源文件数量
+     *
+     * @return 数量
+     */
+    @Select("SELECT COUNT(DISTINCT source_path) FROM `convert_info`")
+    long countSources();
+
+    /**
+     * 分页读取转换信息, 按写入顺序从新到旧
+     *
+     * @param statuses 状态过滤, 为空代表不过滤
+     * @param offset   偏移量
+     * @param size     数量
+     * @return 信息列表
+     */
+    @Select({"<script>",
+            "SELECT source_path, target_path, file_size, join_time, start_time, end_time, convert_status, retry, exceptions FROM `convert_info`",
+            "<if test='statuses != null and statuses.size() > 0'>",
+            "WHERE convert_status IN <foreach collection='statuses' item='status' open='(' separator=',' close=')'>#{status}</foreach>",
+            "</if>",
+            "ORDER BY id DESC LIMIT #{offset}, #{size}",
+            "</script>"})
+    @ResultMap("convertInfo")
+    List<ConvertInfo> getPage(@Param("statuses") List<String> statuses,
+                              @Param("offset") long offset,
+                              @Param("size") int size);
+
+    /**
+     * 统计转换信息数量
+     *
+     * @param statuses 状态过滤, 为空代表不过滤
+     * @return 数量
+     */
+    @Select({"<script>",
+            "SELECT COUNT(1) FROM `convert_info`",
+            "<if test='statuses != null and statuses.size() > 0'>",
+            "WHERE convert_status IN <foreach collection='statuses' item='status' open='(' separator=',' close=')'>#{status}</foreach>",
+            "</if>",
+            "</script>"})
+    long countByStatus(@Param("statuses") List<String> statuses);
+
+    /**
+     * 统计源文件路径和目的路径都匹配的转换信息数量(目的路径有索引)
+     *
+     * @param source 源文件路径
+     * @param target 目的路径
+     * @return 数量
+     */
+    @Select("SELECT COUNT(1) FROM `convert_info` WHERE target_path = #{target} AND source_path = #{source}")
+    int countBySourceAndTarget(@Param("source") String source,
+                               @Param("target") String target);
 }
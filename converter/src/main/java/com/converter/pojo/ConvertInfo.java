@@ -2,7 +2,7 @@ package com.converter.pojo;
 
 import com.alibaba.fastjson.annotation.JSONField;
 import com.converter.constant.ConvertStatus;
-import com.converter.core.ConvertManager;
+import com.converter.core.ChangeFeed;
 import com.converter.utils.StringUtils;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -77,13 +77,13 @@ public class ConvertInfo {
     }
 
     /**
-     * 修改ConvertStatus的同时修改ConvertManager的modify状态
+     * 修改ConvertStatus的同时记录任务变化
      *
      * @param status 修改后的状态
      */
     public void setStatus(final ConvertStatus status) {
         this.status = status;
-        ConvertManager.modify();
+        ChangeFeed.record(this);
     }
 
     /**
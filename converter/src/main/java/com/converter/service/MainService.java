@@ -4,8 +4,13 @@ import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.converter.config.CustomizeConfig;
 import com.converter.config.ThreadPoolConfig;
+import com.converter.constant.ConvertStatus;
+import com.converter.core.ChangeFeed;
 import com.converter.core.ConvertManager;
 import com.converter.core.ConvertMission;
+import com.converter.core.MissionStatistics;
+import com.converter.core.SyncConverter;
+import com.converter.core.UploadManager;
 import com.converter.utils.RedisUtils;
 import com.converter.utils.StringUtils;
 import lombok.extern.slf4j.Slf4j;
@@ -13,7 +18,10 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -48,6 +56,20 @@ public class MainService {
         ConvertManager.addMission(sourceFilePath, targetDirPath);
     }
 
+    /**
+     * 添加单个文件任务, 使用自定义目的路径和优先级
+     *
+     * @param sourceFilePath 源文件路径
+     * @param targetDirPath  目的路径
+     * @param priority       优先级
+     */
+    public void addMission(final String sourceFilePath,
+                           final String targetDirPath,
+                           final int priority) {
+        log.debug("添加文件[{}], 使用自定义目的路径[{}], 优先级[{}]", sourceFilePath, targetDirPath, priority);
+        ConvertManager.addMission(sourceFilePath, targetDirPath, priority);
+    }
+
     /**
      * 添加文件夹任务, 使用默认目的路径
      *
@@ -70,6 +92,95 @@ public class MainService {
         ConvertManager.addMissions(sourceDirPath, targetDirPath, false);
     }
 
+    /**
+     * 添加文件夹任务, 使用自定义目的路径和优先级
+     *
+     * @param sourceDirPath 源文件夹路径
+     * @param targetDirPath 目的路径
+     * @param priority      优先级
+     */
+    public void addMissions(final String sourceDirPath,
+                            final String targetDirPath,
+                            final int priority) {
+        log.debug("添加文件夹[{}], 使用自定义目的路径[{}], 优先级[{}]", sourceDirPath, targetDirPath, priority);
+        ConvertManager.addMissions(sourceDirPath, targetDirPath, false, priority);
+    }
+
+    /**
+     * 同步转换文档
+     *
+     * @param fileName 文件名
+     * @param content  文档内容
+     * @return PDF内容
+     * @throws Exception 超时、繁忙或转换出错
+     */
+    public byte[] convertNow(final String fileName,
+                             final byte[] content) throws Exception {
+        log.debug("同步转换[{}], 大小[{}]", fileName, content.length);
+        return SyncConverter.convert(fileName, content);
+    }
+
+    /**
+     * 批量添加文件任务
+     *
+     * @param items 每项包含source, 可选target和priority
+     * @return json格式字符串: 各状态的数量和每项的结果
+     */
+    public String addMissionBatch(final List<JSONObject> items) {
+        log.debug("批量添加任务, 共{}项", items.size());
+        JSONArray results = ConvertManager.addMissionBatch(items);
+        JSONObject json = new JSONObject();
+        for (Object result : results) {
+            String status = ((JSONObject) result).getString("status");
+            json.put(status, json.getIntValue(status) + 1);
+        }
+        json.put("results", results);
+        return StringUtils.toJsonString(json);
+    }
+
+    /**
+     * 创建流式上传会话
+     *
+     * @param name       文件名
+     * @param size       文件大小
+     * @param targetPath 目的路径, 为空则使用默认目的路径
+     * @param priority   优先级
+     * @return json格式字符串
+     * @throws IOException 创建文件失败
+     */
+    public String createUpload(final String name,
+                               final long size,
+                               final String targetPath,
+                               final int priority) throws IOException {
+        log.debug("创建上传会话, 文件[{}], 大小[{}], 目的路径[{}], 优先级[{}]", name, size, targetPath, priority);
+        return StringUtils.toJsonString(UploadManager.create(name, size, targetPath, priority));
+    }
+
+    /**
+     * 获取上传会话状态
+     *
+     * @param id 上传id
+     * @return json格式字符串
+     */
+    public String getUploadStatus(final String id) {
+        return StringUtils.toJsonString(UploadManager.status(id));
+    }
+
+    /**
+     * 写入上传内容的一段
+     *
+     * @param id          上传id
+     * @param offset      分段起始位置
+     * @param inputStream 请求体
+     * @return json格式字符串
+     * @throws IOException 读写失败
+     */
+    public String appendUpload(final String id,
+                               final long offset,
+                               final InputStream inputStream) throws IOException {
+        return StringUtils.toJsonString(UploadManager.append(id, offset, inputStream));
+    }
+
     /**
      * 根据id取消任务
      *
@@ -87,12 +198,39 @@ public class MainService {
     /**
      * 获取所有任务的集合, 若是已完成任务, value就为-1, 否则为任务id, 可用于取消任务(返回json格式字符串)
      *
-     * @param cache true代表允许缓存, false代表禁止缓存
      * @return 任务集合的json格式字符串
      */
-    public String getAllConvertInfoOfJson(final boolean cache) {
+    public String getAllConvertInfoOfJson() {
         log.debug("获取所有任务json格式字符串");
-        return ConvertManager.getAllConvertInfoOfJson(cache);
+        return ConvertManager.getAllConvertInfoOfJson();
+    }
+
+    /**
+     * 获取指定版本之后变化的任务
+     *
+     * @param since 客户端已有的版本号
+     * @param limit 最多返回的任务数
+     * @return json格式字符串
+     */
+    public String getChanges(final long since,
+                             final int limit) {
+        log.debug("获取版本[{}]之后变化的任务", since);
+        return StringUtils.toJsonString(ChangeFeed.changesSince(since, limit));
+    }
+
+    /**
+     * 分页获取已完成任务
+     *
+     * @param page     页码, 从1开始
+     * @param size     每页数量
+     * @param statuses 状态过滤, 为空代表不过滤
+     * @return json格式字符串
+     */
+    public String getHistory(final int page,
+                             final int size,
+                             final Set<ConvertStatus> statuses) {
+        log.debug("获取已完成任务, 页码[{}], 每页数量[{}], 状态{}", page, size, statuses);
+        return StringUtils.toJsonString(ConvertManager.getFinishedInfoOfJson(page, size, statuses));
     }
 
     /**
@@ -140,19 +278,28 @@ public class MainService {
         config.setMaxRetries(Integer.valueOf(map.get("maxRetry")));
         config.setMissionTimeout(Integer.valueOf(map.get("timeout")));
         config.setEnableSlides("true".equals(map.get("enableSlides")));
-        // 修改线程池配置
+        ThreadPoolConfig poolConfig = ThreadPoolConfig.instance();
+        int corePool = Integer.parseInt(map.get("corePool"));
+        int maxPool = Integer.parseInt(map.get("maxPool"));
+        // virtual模式下转换任务为CPU密集型, 与启动时相同, 并发数不超过CPU核数
+        if (ThreadPoolConfig.MODE_VIRTUAL.equals(poolConfig.getMode())) {
+            maxPool = Math.min(maxPool, Runtime.getRuntime().availableProcessors());
+            corePool = Math.min(corePool, maxPool);
+        }
+        // 修改线程池配置, 核心线程数任何时刻都不能超过最大线程数, 减小时先改核心线程数
         ThreadPoolTaskExecutor pool = ConvertManager.getThreadPoolTaskExecutor();
-        pool.setCorePoolSize(Integer.parseInt(map.get("corePool")));
-        pool.setMaxPoolSize(Integer.parseInt(map.get("maxPool")));
+        if (maxPool >= pool.getCorePoolSize()) {
+            pool.setMaxPoolSize(maxPool);
+            pool.setCorePoolSize(corePool);
+        } else {
+            pool.setCorePoolSize(corePool);
+            pool.setMaxPoolSize(maxPool);
+        }
         pool.setThreadNamePrefix(map.get("prefix"));
         pool.setKeepAliveSeconds(Integer.parseInt(map.get("alive")));
-        ConvertManager.getThreadPoolTaskScheduler()
-                .setPoolSize(Integer.parseInt(map.get("maxPool"))
-                        + Integer.parseInt(map.get("queueCapacity")) + 5);
         // 修改线程池Config中配置
-        ThreadPoolConfig poolConfig = ThreadPoolConfig.instance();
-        poolConfig.setCorePoolSize(Integer.parseInt(map.get("corePool")));
-        poolConfig.setMaxPoolSize(Integer.parseInt(map.get("maxPool")));
+        poolConfig.setCorePoolSize(corePool);
+        poolConfig.setMaxPoolSize(maxPool);
         poolConfig.setPrefix(map.get("prefix"));
         poolConfig.setKeepAliveSeconds(Integer.parseInt(map.get("alive")));
     }
@@ -203,6 +350,16 @@ public class MainService {
         return StringUtils.toJsonString(result);
     }
 
+    /**
+     * 获取任务统计信息
+     *
+     * @return json格式字符串
+     */
+    public String getStatistics() {
+        log.debug("获取任务统计信息");
+        return StringUtils.toJsonString(MissionStatistics.toJson());
+    }
+
     /**
      * 将threadGroup中所有线程信息加入result
      *
@@ -1,12 +1,16 @@
 package com.converter.utils;
 
+import com.alibaba.fastjson.JSONObject;
 import com.converter.config.CustomizeConfig;
 import com.converter.exception.FileException;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 文件工具类
@@ -15,6 +19,27 @@ import java.util.List;
  */
 @Slf4j
 public final class FileUtils {
+    /**
+     * 每次管道写入redis的文件数
+     */
+    private static final int BATCH_SIZE = 1000;
+    /**
+     * 进程内文件索引, 保存redis中所有文件路径的64位哈希
+     */
+    private static final LongHashSet FILE_INDEX = new LongHashSet(1 << 16);
+    /**
+     * 进程内索引命中次数(不需要访问redis)
+     */
+    private static final AtomicLong LOCAL_HITS = new AtomicLong();
+    /**
+     * 访问redis的次数(每次管道写入计一次)
+     */
+    private static final AtomicLong REDIS_CALLS = new AtomicLong();
+    /**
+     * redis中文件集合对应的MySQL指纹的key, 集合变化后为null
+     */
+    private static volatile String fingerprintKey = null;
+
     private FileUtils() {
     }
 
@@ -66,17 +91,109 @@ public final class FileUtils {
 
     /**
      * 检查文件是否在redis缓存中
+     * 先查进程内索引, 命中则不访问redis; 未命中时用SADD的返回值判断, 检查和写入是原子的
      *
      * @param path 文件路径
      * @return true代表已存在, false代表不存在, 并将其加入redis
      */
     private static boolean testAndSetFile(final String path) {
+        return filterNewFiles(Collections.singletonList(path)).isEmpty();
+    }
+
+    /**
+     * 批量检查文件是否在redis缓存中, 进程内索引未命中的文件通过管道批量写入redis
+     *
+     * @param paths 文件路径
+     * @return 不在缓存中的文件(已加入redis)
+     */
+    public static List<String> filterNewFiles(final List<String> paths) {
+        List<String> candidates = new ArrayList<>();
+        for (String path : paths) {
+            if (FILE_INDEX.contains(LongHashSet.hash(path))) {
+                LOCAL_HITS.incrementAndGet();
+            } else {
+                candidates.add(path);
+            }
+        }
+        List<String> result = new ArrayList<>(candidates.size());
         String key = CustomizeConfig.instance().getRedisFileKey();
-        if (!RedisUtils.sHasKey(key, path)) {
-            RedisUtils.sSet(key, path);
-            return false;
+        for (int from = 0; from < candidates.size(); from += BATCH_SIZE) {
+            List<String> batch = candidates.subList(from, Math.min(from + BATCH_SIZE, candidates.size()));
+            REDIS_CALLS.incrementAndGet();
+            List<Boolean> added = RedisUtils.sSetEach(key, batch);
+            for (int i = 0; i < batch.size(); i++) {
+                String path = batch.get(i);
+                // redis出错时与原来一样当作新文件处理, 但redis中没有记录, 不能记入索引
+                if (added == null) {
+                    result.add(path);
+                    continue;
+                }
+                if (added.get(i)) {
+                    result.add(path);
+                }
+                // 无论是否新加入, redis中都已存在, 记入索引
+                FILE_INDEX.add(LongHashSet.hash(path));
+            }
         }
-        return true;
+        if (!result.isEmpty()) {
+            invalidateFingerprint();
+        }
+        return result;
+    }
+
+    /**
+     * 记录redis中文件集合对应的MySQL指纹的key, 集合之后第一次变化时删除指纹, 下次启动时重建集合
+     *
+     * @param key 指纹key
+     */
+    public static void trackFingerprint(final String key) {
+        fingerprintKey = key;
+    }
+
+    /**
+     * redis中的文件集合已变化(加入新文件或删除文件), 与MySQL不再一致, 删除指纹
+     */
+    public static void invalidateFingerprint() {
+        String key = fingerprintKey;
+        if (key != null) {
+            fingerprintKey = null;
+            RedisUtils.del(key);
+        }
+    }
+
+    /**
+     * 将redis中的文件加入进程内索引, 启动时分段调用
+     *
+     * @param paths 文件路径
+     */
+    public static void loadFileIndex(final Collection<String> paths) {
+        for (String path : paths) {
+            FILE_INDEX.add(LongHashSet.hash(path));
+        }
+        log.debug("进程内文件索引已加载{}个文件, 占用{}KB", FILE_INDEX.size(), FILE_INDEX.memoryBytes() >> 10);
+    }
+
+    /**
+     * 从进程内索引移除文件(从redis删除文件后调用)
+     *
+     * @param path 文件路径
+     */
+    public static void forgetFile(final String path) {
+        FILE_INDEX.remove(LongHashSet.hash(path));
+    }
+
+    /**
+     * 获取去重索引状态
+     *
+     * @return json对象
+     */
+    public static JSONObject fileIndexJson() {
+        JSONObject json = new JSONObject();
+        json.put("size", FILE_INDEX.size());
+        json.put("memory", FILE_INDEX.memoryBytes());
+        json.put("localHits", LOCAL_HITS.get());
+        json.put("redisCalls", REDIS_CALLS.get());
+        return json;
     }
 
     /**
@@ -86,12 +203,9 @@ public final class FileUtils {
      * @return true代表已存在, false代表不存在, 并将其加入redis
      */
     private static boolean testAndSetDir(final String path) {
-        String key = CustomizeConfig.instance().getRedisDirKey();
-        if (!RedisUtils.sHasKey(key, path)) {
-            RedisUtils.sSet(key, path);
-            return false;
-        }
-        return true;
+        // SADD返回0代表已存在, 一次往返完成检查和写入
+        List<Boolean> added = RedisUtils.sSetEach(CustomizeConfig.instance().getRedisDirKey(), Collections.singletonList(path));
+        return added != null && !added.get(0);
     }
 
     /**
@@ -0,0 +1,161 @@
+package com.converter.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 紧凑的long哈希集合, 开放寻址(线性探测), 每个元素只占8字节, 用于在进程内记录大量路径的64位哈希
+ * 64位哈希在百万级数据下冲突概率可以忽略, 因此命中即可认为路径已存在
+ *
+ * @author Evan
+ */
+public final class LongHashSet {
+    /**
+     * 最大负载因子
+     */
+    private static final double LOAD_FACTOR = 0.5;
+    /**
+     * 哈希表, 0代表空位
+     */
+    private long[] table;
+    /**
+     * 元素个数
+     */
+    private int size;
+
+    public LongHashSet() {
+        this(1024);
+    }
+
+    public LongHashSet(final int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expected / LOAD_FACTOR)) - 1) << 1;
+        this.table = new long[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * 计算字符串的64位哈希(FNV-1a, 最后再做一次混合, 使低位分布均匀)
+     *
+     * @param value 字符串
+     * @return 哈希值, 不会为0
+     */
+    public static long hash(final String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * 是否包含
+     *
+     * @param value 哈希值
+     * @return true代表包含
+     */
+    public synchronized boolean contains(final long value) {
+        return table[indexOf(table, value)] == value;
+    }
+
+    /**
+     * 加入集合
+     *
+     * @param value 哈希值
+     * @return true代表之前不存在
+     */
+    public synchronized boolean add(final long value) {
+        int index = indexOf(table, value);
+        if (table[index] == value) {
+            return false;
+        }
+        table[index] = value;
+        if (++size > table.length * LOAD_FACTOR) {
+            resize();
+        }
+        return true;
+    }
+
+    /**
+     * 从集合移除, 移除后把同一探测链上后面的元素前移, 保证查找不会中断
+     *
+     * @param value 哈希值
+     * @return true代表之前存在
+     */
+    public synchronized boolean remove(final long value) {
+        int mask = table.length - 1;
+        int index = indexOf(table, value);
+        if (table[index] != value) {
+            return false;
+        }
+        table[index] = 0;
+        size--;
+        int next = (index + 1) & mask;
+        while (table[next] != 0) {
+            long moved = table[next];
+            table[next] = 0;
+            table[indexOf(table, moved)] = moved;
+            next = (next + 1) & mask;
+        }
+        return true;
+    }
+
+    /**
+     * 清空集合
+     */
+    public synchronized void clear() {
+        table = new long[table.length];
+        size = 0;
+    }
+
+    /**
+     * 元素个数
+     *
+     * @return 元素个数
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 哈希表占用的字节数
+     *
+     * @return 字节数
+     */
+    public synchronized long memoryBytes() {
+        return table.length * 8L;
+    }
+
+    /**
+     * 查找元素所在位置, 不存在时返回应当插入的空位
+     *
+     * @param table 哈希表
+     * @param value 哈希值
+     * @return 位置
+     */
+    private static int indexOf(final long[] table,
+                               final long value) {
+        int mask = table.length - 1;
+        int index = (int) (value ^ (value >>> 32)) & mask;
+        while (table[index] != 0 && table[index] != value) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * 扩容为原来的两倍
+     */
+    private void resize() {
+        long[] old = table;
+        long[] newTable = new long[old.length << 1];
+        for (long value : old) {
+            if (value != 0) {
+                newTable[indexOf(newTable, value)] = value;
+            }
+        }
+        table = newTable;
+    }
+}
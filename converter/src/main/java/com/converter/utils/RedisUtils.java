@@ -3,9 +3,12 @@ package com.converter.utils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -383,6 +386,68 @@ public final class RedisUtils {
         }
     }
 
+    /**
+     * 使用管道将多个值逐个放入set缓存, 只需一次网络往返
+     * 利用SADD的返回值判断每个值是否是新加入的, 检查和写入是原子的
+     *
+     * @param key    键
+     * @param values 值
+     * @return 每个值是否是新加入的, 出错时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Boolean> sSetEach(final String key,
+                                         final List<?> values) {
+        try {
+            List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                public <K, V> Object execute(final RedisOperations<K, V> operations) {
+                    for (Object value : values) {
+                        ((RedisOperations<Object, Object>) operations).opsForSet().add(key, value);
+                    }
+                    return null;
+                }
+            });
+            List<Boolean> added = new ArrayList<>(results.size());
+            for (Object result : results) {
+                added.add(result instanceof Long && (Long) result > 0);
+            }
+            return added;
+        } catch (Exception e) {
+            log.error(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 使用管道将大量值分段放入set缓存, 每段一条SADD命令, 所有命令只需一次网络往返
+     *
+     * @param key       键
+     * @param values    值
+     * @param chunkSize 每条SADD命令的值个数
+     * @return 是否成功
+     */
+    @SuppressWarnings("unchecked")
+    public static boolean sSetChunks(final String key,
+                                     final List<?> values,
+                                     final int chunkSize) {
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                public <K, V> Object execute(final RedisOperations<K, V> operations) {
+                    for (int i = 0; i < values.size(); i += chunkSize) {
+                        Object[] chunk = values.subList(i, Math.min(i + chunkSize, values.size())).toArray();
+                        ((RedisOperations<Object, Object>) operations).opsForSet().add(key, chunk);
+                    }
+                    return null;
+                }
+            });
+            return true;
+        } catch (Exception e) {
+            log.error(e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * 将set数据放入缓存
      *
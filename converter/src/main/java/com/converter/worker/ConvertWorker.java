@@ -0,0 +1,151 @@
+package com.converter.worker;
+
+import com.converter.constant.DocumentType;
+import com.converter.converter.AbstractConverter;
+import com.converter.converter.ConverterWarmup;
+import com.converter.converter.impl.CellConverter;
+import com.converter.converter.impl.WordConverter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 转换进程入口, 由WorkerPool启动, 不加载Spring上下文
+ * 通过标准输入输出与主进程通信, 每次请求依次为文档类别、源文件路径、目的路径(UTF),
+ * 每次应答依次为是否成功(boolean)、错误信息(int长度+UTF-8字节, 不受writeUTF的64KB限制)、当前常驻内存字节数(long)
+ * 标准输出专用于通信, 日志等其他输出全部重定向到标准错误
+ *
+ * @author Evan
+ */
+public final class ConvertWorker {
+    private ConvertWorker() {
+    }
+
+    /**
+     * 启动转换进程
+     *
+     * @param args 字体目录, 是否允许没有授权文件, 预热轮数, 是否启用slides, Word分段最小页数, Word分段最小文件大小, Word分段并行数,
+     *             Cell分段最小工作表数, Cell分段最小文件大小, Cell分段并行数, Cell流式转换最小文件大小, Cell流式转换每段行数,
+     *             CSV编码
+     */
+    public static void main(final String[] args) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        DataInputStream input = new DataInputStream(new BufferedInputStream(System.in));
+        System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true));
+
+        AbstractConverter.init(args[0], Boolean.parseBoolean(args[1]));
+        if (args.length > 6) {
+            WordConverter.configure(Integer.parseInt(args[4]), Integer.parseInt(args[5]), Integer.parseInt(args[6]));
+        }
+        if (args.length > 9) {
+            CellConverter.configure(Integer.parseInt(args[7]), Integer.parseInt(args[8]), Integer.parseInt(args[9]));
+        }
+        if (args.length > 12) {
+            CellConverter.configureStreaming(Integer.parseInt(args[10]), Integer.parseInt(args[11]), args[12]);
+        }
+        // 每次启动(包括达到上限后重启)都先预热, 避免由重启后的前几个任务承担冷启动开销
+        if (args.length > 3) {
+            List<DocumentType> documentTypes = new ArrayList<>(Arrays.asList(DocumentType.WORD, DocumentType.CELL));
+            if (Boolean.parseBoolean(args[3])) {
+                documentTypes.add(DocumentType.SLIDE);
+            }
+            ConverterWarmup.run(documentTypes, Integer.parseInt(args[2]));
+        }
+        while (true) {
+            String type;
+            String sourceFilePath;
+            String targetFilePath;
+            try {
+                type = input.readUTF();
+                sourceFilePath = input.readUTF();
+                targetFilePath = input.readUTF();
+            } catch (EOFException e) {
+                // 主进程关闭了管道, 正常退出
+                return;
+            }
+            boolean success = true;
+            String message = "";
+            boolean fatal = false;
+            try {
+                AbstractConverter.newConverter(DocumentType.valueOf(type)).convert(sourceFilePath, targetFilePath);
+            } catch (OutOfMemoryError e) {
+                success = false;
+                message = String.valueOf(e.getMessage());
+                fatal = true;
+            } catch (Exception e) {
+                success = false;
+                message = String.valueOf(e.getMessage());
+            }
+            output.writeBoolean(success);
+            writeMessage(output, message);
+            output.writeLong(rss());
+            output.flush();
+            if (fatal) {
+                // 堆溢出后进程状态不可信, 退出后由主进程重新启动
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * 写入错误信息, 长度在前, 内容为UTF-8字节
+     *
+     * @param output  输出流
+     * @param message 错误信息
+     * @throws IOException 写入失败
+     */
+    static void writeMessage(final DataOutputStream output,
+                             final String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * 读取writeMessage写入的错误信息
+     *
+     * @param input 输入流
+     * @return 错误信息
+     * @throws IOException 读取失败或长度无效
+     */
+    static String readMessage(final DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            throw new IOException("错误信息长度无效: " + length);
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 获取当前进程常驻内存, Linux下读取/proc/self/status, 其他系统以已提交的堆内存代替
+     *
+     * @return 字节数
+     */
+    private static long rss() {
+        try {
+            List<String> lines = Files.readAllLines(Paths.get("/proc/self/status"));
+            for (String line : lines) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (Exception ignored) {
+        }
+        return Runtime.getRuntime().totalMemory();
+    }
+}
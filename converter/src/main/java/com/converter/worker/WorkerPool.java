@@ -0,0 +1,221 @@
+package com.converter.worker;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.converter.config.CustomizeConfig;
+import com.converter.config.WorkerConfig;
+import com.converter.exception.ConvertException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 转换进程池, 预先启动固定数量的转换进程
+ * 转换进程达到最大转换次数或常驻内存上限后销毁并重新启动, 崩溃的进程同样会被替换, 不影响主进程
+ *
+ * @author Evan
+ */
+@Slf4j
+@Component
+@DependsOn({"workerConfig", "customizeConfig"})
+public final class WorkerPool {
+    /**
+     * 转换进程主类
+     */
+    private static final String WORKER_CLASS = ConvertWorker.class.getName();
+    /**
+     * 限制同时借出的进程数
+     */
+    private static Semaphore permits = new Semaphore(0);
+    /**
+     * 空闲进程
+     */
+    private static final BlockingQueue<WorkerProcess> IDLE = new LinkedBlockingQueue<>();
+    /**
+     * 所有存活的进程
+     */
+    private static final Set<WorkerProcess> ALL = ConcurrentHashMap.newKeySet();
+    /**
+     * 进程重启次数
+     */
+    private static final AtomicLong RESTARTS = new AtomicLong();
+
+    /**
+     * 初始化, 启用转换进程时预先启动所有进程
+     */
+    @PostConstruct
+    public void init() {
+        WorkerConfig config = WorkerConfig.instance();
+        if (!config.isEnabled()) {
+            return;
+        }
+        log.debug("开始初始化WorkerPool");
+        int size = Math.max(1, config.getSize());
+        permits = new Semaphore(size);
+        for (int i = 0; i < size; i++) {
+            try {
+                IDLE.offer(spawn());
+            } catch (IOException e) {
+                log.error("转换进程启动失败", e);
+            }
+        }
+        log.debug("成功初始化WorkerPool, 进程数{}", IDLE.size());
+    }
+
+    /**
+     * 借出一个转换进程, 没有可用进程时阻塞
+     *
+     * @return 转换进程
+     * @throws InterruptedException 等待时被中断
+     */
+    public static WorkerProcess borrow() throws InterruptedException {
+        permits.acquire();
+        try {
+            WorkerProcess worker = IDLE.poll();
+            while (worker != null && !worker.isAlive()) {
+                ALL.remove(worker);
+                worker = IDLE.poll();
+            }
+            if (worker == null) {
+                RESTARTS.incrementAndGet();
+                worker = spawn();
+            }
+            return worker;
+        } catch (IOException e) {
+            permits.release();
+            throw new ConvertException.WorkerException(e);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 归还转换进程, 已退出或超出限制的进程直接销毁, 下次借出时重新启动
+     *
+     * @param worker 转换进程
+     */
+    public static void giveBack(final WorkerProcess worker) {
+        try {
+            WorkerConfig config = WorkerConfig.instance();
+            boolean expired = config.getMaxConversions() > 0
+                    && worker.getConversions() >= config.getMaxConversions();
+            boolean bloated = config.getMaxRssMb() > 0
+                    && worker.getRss() > config.getMaxRssMb() * 1024L * 1024L;
+            if (!worker.isAlive() || expired || bloated) {
+                if (worker.isAlive()) {
+                    log.info("转换进程已完成{}次转换, 常驻内存{}MB, 重新启动",
+                            worker.getConversions(), worker.getRss() >> 20);
+                }
+                worker.destroy();
+                ALL.remove(worker);
+            } else {
+                IDLE.offer(worker);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 启动一个转换进程
+     *
+     * @return 转换进程
+     * @throws IOException 启动失败
+     */
+    private static WorkerProcess spawn() throws IOException {
+        WorkerProcess worker = new WorkerProcess(command());
+        ALL.add(worker);
+        return worker;
+    }
+
+    /**
+     * 生成启动命令, 使用与主进程相同的classpath
+     * 以可执行jar运行时classpath只有jar本身, 通过PropertiesLauncher指定入口类
+     *
+     * @return 启动命令
+     */
+    private static List<String> command() {
+        WorkerConfig config = WorkerConfig.instance();
+        CustomizeConfig customizeConfig = CustomizeConfig.instance();
+        String java = config.getJavaPath();
+        if (java == null || java.isEmpty()) {
+            java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        }
+        String classPath = System.getProperty("java.class.path");
+
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.add("-Xmx" + config.getMaxHeap());
+        command.add("-Dfile.encoding=UTF-8");
+        command.add("-cp");
+        command.add(classPath);
+        if (classPath.endsWith(".jar") && !classPath.contains(File.pathSeparator)) {
+            command.add("-Dloader.main=" + WORKER_CLASS);
+            command.add("org.springframework.boot.loader.PropertiesLauncher");
+        } else {
+            command.add(WORKER_CLASS);
+        }
+        command.add(customizeConfig.getFontDir());
+        command.add(String.valueOf(customizeConfig.isAllowWithoutLicense()));
+        command.add(String.valueOf(customizeConfig.getWarmupRounds()));
+        command.add(String.valueOf(customizeConfig.isEnableSlides()));
+        command.add(String.valueOf(customizeConfig.getWordSplitPages()));
+        command.add(String.valueOf(customizeConfig.getWordSplitMinSizeMb()));
+        command.add(String.valueOf(customizeConfig.getWordSplitThreads()));
+        command.add(String.valueOf(customizeConfig.getCellSplitSheets()));
+        command.add(String.valueOf(customizeConfig.getCellSplitMinSizeMb()));
+        command.add(String.valueOf(customizeConfig.getCellSplitThreads()));
+        command.add(String.valueOf(customizeConfig.getCellStreamMinSizeMb()));
+        command.add(String.valueOf(customizeConfig.getCellStreamChunkRows()));
+        command.add(customizeConfig.getCellStreamCharset() == null ? "" : customizeConfig.getCellStreamCharset());
+        return command;
+    }
+
+    /**
+     * 获取转换进程状态
+     *
+     * @return json对象
+     */
+    public static JSONObject toJson() {
+        JSONArray processes = new JSONArray();
+        for (WorkerProcess worker : ALL) {
+            JSONObject json = new JSONObject();
+            json.put("conversions", worker.getConversions());
+            json.put("rss", worker.getRss());
+            json.put("alive", worker.isAlive());
+            processes.add(json);
+        }
+        JSONObject result = new JSONObject();
+        result.put("idle", IDLE.size());
+        result.put("available", permits.availablePermits());
+        result.put("restarts", RESTARTS.get());
+        result.put("processes", processes);
+        return result;
+    }
+
+    /**
+     * 关闭所有转换进程
+     */
+    @PreDestroy
+    public void destroy() {
+        for (WorkerProcess worker : ALL) {
+            worker.destroy();
+        }
+        ALL.clear();
+        IDLE.clear();
+    }
+}
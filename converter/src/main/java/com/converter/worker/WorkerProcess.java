@@ -0,0 +1,103 @@
+package com.converter.worker;
+
+import com.converter.exception.ConvertException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 一个转换进程, 同一时间只能执行一个转换
+ *
+ * @author Evan
+ */
+@Slf4j
+@Getter
+public final class WorkerProcess {
+    /**
+     * 子进程
+     */
+    private final Process process;
+    /**
+     * 发送请求的流
+     */
+    private final DataOutputStream output;
+    /**
+     * 读取应答的流
+     */
+    private final DataInputStream input;
+    /**
+     * 已完成的转换次数
+     */
+    private int conversions;
+    /**
+     * 最近一次应答时的常驻内存字节数
+     */
+    private long rss;
+
+    /**
+     * 启动转换进程
+     *
+     * @param command 启动命令
+     * @throws IOException 进程启动失败
+     */
+    WorkerProcess(final List<String> command) throws IOException {
+        this.process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        this.output = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        this.input = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+    }
+
+    /**
+     * 在转换进程中转换文件, 阻塞直到转换结束
+     *
+     * @param type           文档类别
+     * @param sourceFilePath 源文件路径
+     * @param targetFilePath 目的路径
+     */
+    public void convert(final String type,
+                        final String sourceFilePath,
+                        final String targetFilePath) {
+        boolean success;
+        String message;
+        try {
+            output.writeUTF(type);
+            output.writeUTF(sourceFilePath);
+            output.writeUTF(targetFilePath);
+            output.flush();
+            success = input.readBoolean();
+            message = ConvertWorker.readMessage(input);
+            rss = input.readLong();
+        } catch (IOException e) {
+            // 进程崩溃或被中断时销毁, 由WorkerPool重新启动
+            destroy();
+            throw new ConvertException.WorkerException(e);
+        }
+        conversions++;
+        if (!success) {
+            throw new ConvertException.WorkerConvertException(message);
+        }
+    }
+
+    /**
+     * 进程是否存活
+     *
+     * @return true代表存活
+     */
+    public boolean isAlive() {
+        return process.isAlive();
+    }
+
+    /**
+     * 强制结束进程
+     */
+    public void destroy() {
+        process.destroyForcibly();
+    }
+}
@@ -0,0 +1,73 @@
+package com.converter.converter;
+
+import com.converter.converter.impl.WordConverter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Word分段并行转换基准测试, 不加载Spring上下文
+ * 位于测试代码中, 不随应用打包, 用法: mvn test-compile 后
+ * java -cp target/test-classes:target/classes:依赖 com.converter.converter.WordSplitBenchmark
+ * 源文件 字体目录 [并行数...]
+ * 先串行转换一次作为基准, 再依次用各个并行数分段转换, 每种并行数转换两次取较快的一次, 输出耗时和加速比
+ *
+ * @author Evan
+ */
+public final class WordSplitBenchmark {
+    private WordSplitBenchmark() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("用法: WordSplitBenchmark 源文件 字体目录 [并行数...]");
+            return;
+        }
+        String source = args[0];
+        AbstractConverter.init(args[1], true);
+        int cores = Runtime.getRuntime().availableProcessors();
+        int[] threads;
+        if (args.length > 2) {
+            threads = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) {
+                threads[i - 2] = Integer.parseInt(args[i]);
+            }
+        } else {
+            threads = new int[]{2, 4, cores};
+        }
+        Path dir = Files.createTempDirectory("word-bench-");
+        String target = dir.resolve("out.pdf").toString();
+        System.out.printf("文件: %s (%d字节), CPU核数: %d%n", source, new File(source).length(), cores);
+
+        // 并行数为1时不创建线程池, 即串行转换
+        WordConverter.configure(1, 0, 1);
+        long serial = best(source, target);
+        System.out.printf("串行: %dms%n", serial);
+        for (int count : threads) {
+            WordConverter.configure(1, 0, count);
+            long millis = best(source, target);
+            System.out.printf("并行数%d: %dms, 加速比%.2f%n", count, millis, serial / (double) millis);
+        }
+        new File(target).delete();
+        dir.toFile().delete();
+    }
+
+    /**
+     * 转换两次, 第一次同时用于预热
+     *
+     * @param source 源文件
+     * @param target 目的文件
+     * @return 较快一次的耗时(毫秒)
+     */
+    private static long best(final String source,
+                             final String target) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 2; i++) {
+            long start = System.currentTimeMillis();
+            new WordConverter().convert(source, target);
+            best = Math.min(best, System.currentTimeMillis() - start);
+        }
+        return best;
+    }
+}
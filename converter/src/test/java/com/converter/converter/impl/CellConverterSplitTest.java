@@ -0,0 +1,143 @@
+package com.converter.converter.impl;
+
+import com.converter.converter.AbstractConverter;
+import com.converter.exception.ConvertException;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 按工作表分段转换与单线程转换结果对比
+ * 没有授权文件时输出带水印, 对比没有意义, 跳过需要转换的测试; 字体目录通过-DfontDir指定
+ */
+class CellConverterSplitTest {
+    private static boolean licensed;
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void init() {
+        try {
+            AbstractConverter.init(System.getProperty("fontDir", "C:\\Windows\\Fonts"), false);
+            licensed = true;
+        } catch (ConvertException.LicenseException e) {
+            licensed = false;
+        }
+    }
+
+    @AfterEach
+    void reset() {
+        CellConverter.configure(0, 0, 1);
+    }
+
+    @Test
+    void splitOutputMatchesSingleThreaded() throws Exception {
+        assumeTrue(licensed, "没有授权文件");
+        String source = dir.resolve("book.xlsx").toString();
+        com.aspose.cells.Workbook workbook = workbook(6, 300);
+        workbook.save(source);
+        workbook.dispose();
+
+        File single = dir.resolve("single.pdf").toFile();
+        CellConverter.configure(0, 0, 1);
+        new CellConverter().convert(source, single.getAbsolutePath());
+
+        File split = dir.resolve("split.pdf").toFile();
+        CellConverter.configure(2, 0, 3);
+        new CellConverter().convert(source, split.getAbsolutePath());
+
+        assertSamePages(single, split);
+    }
+
+    @Test
+    void splitsVisibleSheetsInOrder() throws Exception {
+        CellConverter.configure(2, 0, 3);
+        com.aspose.cells.Workbook workbook = workbook(7, 1);
+        workbook.getWorksheets().get(3).setVisible(false);
+        List<List<Integer>> parts = CellConverter.splitSheets(workbook, 0);
+        assertEquals(3, parts.size());
+        assertEquals(Arrays.asList(0, 1), parts.get(0));
+        assertEquals(Arrays.asList(2, 4), parts.get(1));
+        assertEquals(Arrays.asList(5, 6), parts.get(2));
+        workbook.dispose();
+    }
+
+    @Test
+    void pageNumbersDisableSplit() throws Exception {
+        CellConverter.configure(2, 0, 3);
+        com.aspose.cells.Workbook workbook = workbook(6, 1);
+        workbook.getWorksheets().get(4).getPageSetup().setFooter(1, "第&P页, 共&N页");
+        assertEquals(1, CellConverter.splitSheets(workbook, 0).size());
+        // 转义的&不是页码
+        workbook.getWorksheets().get(4).getPageSetup().setFooter(1, "R&&P");
+        assertEquals(3, CellConverter.splitSheets(workbook, 0).size());
+        workbook.dispose();
+    }
+
+    @Test
+    void regroupMergesPartsInOrder() {
+        List<List<Integer>> parts = Arrays.asList(Arrays.asList(0, 1), Arrays.asList(2, 4), Arrays.asList(5, 6));
+        List<List<Integer>> regrouped = CellConverter.regroup(parts, 2);
+        assertEquals(2, regrouped.size());
+        assertEquals(Arrays.asList(0, 1, 2), regrouped.get(0));
+        assertEquals(Arrays.asList(4, 5, 6), regrouped.get(1));
+        assertEquals(parts, CellConverter.regroup(parts, 3));
+    }
+
+    /**
+     * 创建测试工作簿
+     *
+     * @param sheets 工作表数
+     * @param rows   每个工作表的行数
+     * @return 工作簿
+     */
+    private static com.aspose.cells.Workbook workbook(final int sheets,
+                                                     final int rows) throws Exception {
+        com.aspose.cells.Workbook workbook = new com.aspose.cells.Workbook();
+        com.aspose.cells.WorksheetCollection worksheets = workbook.getWorksheets();
+        while (worksheets.getCount() < sheets) {
+            worksheets.add("Sheet" + (worksheets.getCount() + 1));
+        }
+        for (int s = 0; s < sheets; s++) {
+            com.aspose.cells.Cells cells = worksheets.get(s).getCells();
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < 5; c++) {
+                    cells.get(r, c).putValue("S" + s + "R" + r + "C" + c);
+                }
+            }
+        }
+        return workbook;
+    }
+
+    /**
+     * 对比两个PDF的页数和每页文本
+     *
+     * @param expected 单线程转换结果
+     * @param actual   分段转换结果
+     */
+    private static void assertSamePages(final File expected,
+                                        final File actual) throws IOException {
+        try (PDDocument a = PDDocument.load(expected); PDDocument b = PDDocument.load(actual)) {
+            assertEquals(a.getNumberOfPages(), b.getNumberOfPages());
+            PDFTextStripper stripper = new PDFTextStripper();
+            for (int page = 1; page <= a.getNumberOfPages(); page++) {
+                stripper.setStartPage(page);
+                stripper.setEndPage(page);
+                assertEquals(stripper.getText(a), stripper.getText(b), "第" + page + "页不同");
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.converter.converter.impl;
+
+import com.converter.converter.AbstractConverter;
+import com.converter.exception.ConvertException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 流式转换: CSV解析、编码检测和LightCells逐行读取
+ */
+class CellStreamConverterTest {
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void init() {
+        try {
+            AbstractConverter.init(System.getProperty("fontDir", "C:\\Windows\\Fonts"), false);
+        } catch (ConvertException.LicenseException e) {
+            // 没有授权文件时输出带水印, 不影响行数
+        }
+    }
+
+    @Test
+    void parsesQuotedFields() throws IOException {
+        List<List<String>> rows = parse("a,\"b,c\",\"say \"\"hi\"\"\"\n"
+                + "\"multi\nline\",2,\n"
+                + "last,row", ',');
+        assertEquals(3, rows.size());
+        assertEquals(Arrays.asList("a", "b,c", "say \"hi\""), rows.get(0));
+        assertEquals(Arrays.asList("multi\nline", "2", ""), rows.get(1));
+        assertEquals(Arrays.asList("last", "row"), rows.get(2));
+    }
+
+    @Test
+    void parsesTabDelimited() throws IOException {
+        List<List<String>> rows = parse("a\tb,c\n1\t2\n", '\t');
+        assertEquals(Arrays.asList(Arrays.asList("a", "b,c"), Arrays.asList("1", "2")), rows);
+    }
+
+    @Test
+    void stripsUtf8Bom() throws IOException {
+        byte[] body = "名称,数量\n".getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[body.length + 3];
+        bytes[0] = (byte) 0xEF;
+        bytes[1] = (byte) 0xBB;
+        bytes[2] = (byte) 0xBF;
+        System.arraycopy(body, 0, bytes, 3, body.length);
+        assertEquals("名称,数量", firstLine(bytes, ""));
+    }
+
+    @Test
+    void detectsUtf16Bom() throws IOException {
+        byte[] body = "名称,数量\n".getBytes(StandardCharsets.UTF_16LE);
+        byte[] bytes = new byte[body.length + 2];
+        bytes[0] = (byte) 0xFF;
+        bytes[1] = (byte) 0xFE;
+        System.arraycopy(body, 0, bytes, 2, body.length);
+        assertEquals("名称,数量", firstLine(bytes, ""));
+    }
+
+    @Test
+    void detectsUtf8AndFallsBackToGbk() throws IOException {
+        assertEquals("名称,数量", firstLine("名称,数量\n".getBytes(StandardCharsets.UTF_8), ""));
+        assertEquals("名称,数量", firstLine("名称,数量\n".getBytes(Charset.forName("GBK")), ""));
+    }
+
+    @Test
+    void usesConfiguredCharset() throws IOException {
+        // 没有BOM的UTF-16LE也是合法的UTF-8, 只有按配置的编码才能正确读取
+        assertEquals("ab", firstLine("ab\n".getBytes(StandardCharsets.UTF_16LE), "UTF-16LE"));
+    }
+
+    @Test
+    void streamsEveryRowOfWorkbook() throws Exception {
+        com.aspose.cells.Workbook workbook = new com.aspose.cells.Workbook();
+        com.aspose.cells.WorksheetCollection worksheets = workbook.getWorksheets();
+        worksheets.add("Sheet2");
+        worksheets.add("Hidden");
+        fill(worksheets.get(0).getCells(), 5);
+        fill(worksheets.get(1).getCells(), 3);
+        fill(worksheets.get(2).getCells(), 4);
+        worksheets.get(2).setVisible(false);
+        String source = dir.resolve("book.xlsx").toString();
+        workbook.save(source);
+        workbook.dispose();
+
+        CellStreamConverter converter = new CellStreamConverter(2, "");
+        converter.convert(source, dir.resolve("book.pdf").toString());
+        // 隐藏的工作表不输出, 每个工作表的最后一行都不能丢失
+        assertEquals(8, converter.getTotalRows());
+    }
+
+    @Test
+    void streamsEveryRowOfCsv() throws Exception {
+        Path source = dir.resolve("data.csv");
+        Files.write(source, "h1,h2\n1,2\n3,4\n5,6\n".getBytes(StandardCharsets.UTF_8));
+        CellStreamConverter converter = new CellStreamConverter(2, "");
+        converter.convert(source.toString(), dir.resolve("data.pdf").toString());
+        assertEquals(4, converter.getTotalRows());
+    }
+
+    /**
+     * 解析CSV/TSV文本
+     *
+     * @param text      文本
+     * @param delimiter 分隔符
+     * @return 各行
+     */
+    private static List<List<String>> parse(final String text,
+                                            final char delimiter) throws IOException {
+        List<List<String>> rows = new ArrayList<>();
+        CellStreamConverter.parseDelimited(new BufferedReader(new StringReader(text)), delimiter, rows::add);
+        return rows;
+    }
+
+    /**
+     * 按检测到的编码读取第一行
+     *
+     * @param bytes       文件内容
+     * @param charsetName 配置的编码
+     * @return 第一行
+     */
+    private static String firstLine(final byte[] bytes,
+                                    final String charsetName) throws IOException {
+        InputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(bytes));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream,
+                CellStreamConverter.decoder(inputStream, charsetName)))) {
+            return reader.readLine();
+        }
+    }
+
+    /**
+     * 填充工作表
+     *
+     * @param cells 单元格
+     * @param rows  行数
+     */
+    private static void fill(final com.aspose.cells.Cells cells,
+                             final int rows) {
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < 3; c++) {
+                cells.get(r, c).putValue("R" + r + "C" + c);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.converter.core;
+
+import com.converter.config.ThreadPoolConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrencyLimiterTest {
+    /**
+     * 每次转换的文件大小, 加上1KB后代价为1MB
+     */
+    private static final long FILE_SIZE = 1024 * 1024 - 1024;
+
+    private ThreadPoolConfig config;
+    private long now;
+    private long gc;
+
+    @BeforeEach
+    void init() {
+        config = new ThreadPoolConfig();
+        config.setAdaptive(true);
+        config.setCorePoolSize(4);
+        config.setMaxPoolSize(8);
+        config.setAdaptiveMin(2);
+        config.setAdaptiveMax(0);
+        config.setAdaptiveCpuHigh(0.9);
+        config.setAdaptiveGcHigh(0.1);
+        config.init(config);
+        now = 0;
+        gc = 0;
+        ConcurrencyLimiter.init(now, gc);
+    }
+
+    @Test
+    void increasesWhenSaturated() {
+        work(10, 1000);
+        ConcurrencyLimiter.onLimitReached();
+        assertTrue(adjust(0.5, 0));
+        assertEquals(5, ConcurrencyLimiter.getLimit());
+        assertEquals("saturated", ConcurrencyLimiter.getLastReason());
+    }
+
+    @Test
+    void highCpuOnlyStopsIncrease() {
+        work(10, 1000);
+        ConcurrencyLimiter.onLimitReached();
+        assertFalse(adjust(0.99, 0));
+        assertEquals(4, ConcurrencyLimiter.getLimit());
+        // CPU使用率高但没有其他信号时不减小
+        work(10, 1000);
+        assertFalse(adjust(0.99, 0));
+        assertEquals(4, ConcurrencyLimiter.getLimit());
+    }
+
+    @Test
+    void decreasesOnGc() {
+        work(10, 1000);
+        // 10秒内GC 2秒, 占比0.2
+        assertFalse(adjust(0.5, 2000));
+        assertEquals(3, ConcurrencyLimiter.getLimit());
+        assertEquals("gc", ConcurrencyLimiter.getLastReason());
+    }
+
+    @Test
+    void decreasesOnLatencyGradient() {
+        work(10, 1000);
+        adjust(0.5, 0);
+        work(10, 10000);
+        assertFalse(adjust(0.5, 0));
+        assertEquals(3, ConcurrencyLimiter.getLimit());
+        assertEquals("latency", ConcurrencyLimiter.getLastReason());
+    }
+
+    @Test
+    void undoesIncreaseWhenThroughputDrops() {
+        work(10, 1000);
+        ConcurrencyLimiter.onLimitReached();
+        assertTrue(adjust(0.5, 0));
+        assertEquals(5, ConcurrencyLimiter.getLimit());
+        // 单位代价耗时不变, 吞吐量减半
+        work(5, 1000);
+        assertFalse(adjust(0.5, 0));
+        assertEquals(4, ConcurrencyLimiter.getLimit());
+        assertEquals("throughput", ConcurrencyLimiter.getLastReason());
+    }
+
+    @Test
+    void clampsToRange() {
+        config.setAdaptiveMax(5);
+        for (int i = 0; i < 3; i++) {
+            work(10, 1000);
+            ConcurrencyLimiter.onLimitReached();
+            adjust(0.5, 0);
+        }
+        assertEquals(5, ConcurrencyLimiter.getLimit());
+        for (int i = 0; i < 5; i++) {
+            adjust(0.5, 2000);
+        }
+        assertEquals(2, ConcurrencyLimiter.getLimit());
+    }
+
+    @Test
+    void clampsWhenPoolShrinks() {
+        config.setMaxPoolSize(3);
+        adjust(0.5, 0);
+        assertEquals(3, ConcurrencyLimiter.getLimit());
+        assertEquals("range", ConcurrencyLimiter.getLastReason());
+    }
+
+    /**
+     * 记录一个周期内完成的转换
+     *
+     * @param count  转换数
+     * @param millis 每次转换的耗时
+     */
+    private static void work(final int count,
+                             final long millis) {
+        for (int i = 0; i < count; i++) {
+            ConcurrencyLimiter.recordConversion(null, FILE_SIZE, millis);
+        }
+    }
+
+    /**
+     * 经过一个10秒的周期后调整上限
+     *
+     * @param cpu     CPU使用率
+     * @param gcDelta 周期内的GC耗时
+     * @return true代表上限增加
+     */
+    private boolean adjust(final double cpu,
+                           final long gcDelta) {
+        now += 10_000;
+        gc += gcDelta;
+        return ConcurrencyLimiter.adjust(now, gc, cpu);
+    }
+}
@@ -0,0 +1,114 @@
+package com.converter.core;
+
+import com.converter.config.CustomizeConfig;
+import com.converter.config.ThreadPoolConfig;
+import com.converter.config.WorkerConfig;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 调度延迟基准测试, 不加载Spring上下文, 不做实际转换
+ * 位于测试代码中, 不随应用打包, 用法: mvn test-compile 后
+ * java -cp target/test-classes:target/classes:依赖 com.converter.core.DispatchLatencyBenchmark
+ * [任务数] [线程数] [转换耗时(毫秒)] [到达间隔(毫秒)]
+ * 按固定间隔加入任务, 由dispatch唤醒调度; 桩任务在转换线程中开始时记录从加入到开始的等待时间,
+ * 占用指定时间后释放位置, 最后输出等待时间的p50、p99和最大值
+ *
+ * @author Evan
+ */
+public final class DispatchLatencyBenchmark {
+    private DispatchLatencyBenchmark() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        int total = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long convertMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        long intervalMillis = args.length > 3 ? Long.parseLong(args[3]) : 10;
+
+        // 线程池不排队, 任务数达到线程数后留在等待队列中, 由转换结束时的dispatch启动
+        ThreadPoolConfig poolConfig = new ThreadPoolConfig();
+        poolConfig.setCorePoolSize(threads);
+        poolConfig.setMaxPoolSize(threads);
+        poolConfig.setQueueCapacity(0);
+        poolConfig.init(poolConfig);
+        CustomizeConfig config = new CustomizeConfig();
+        config.setMemoryAdmission(false);
+        config.init(config);
+        WorkerConfig workerConfig = new WorkerConfig();
+        workerConfig.init(workerConfig);
+
+        ThreadPoolTaskExecutor executor = newExecutor("bench-convert-", threads);
+        ThreadPoolTaskExecutor orchestration = newExecutor("bench-orchestration-", 2);
+        ConvertManager.setUp(executor, null, orchestration, null);
+
+        // 源文件路径 -> 加入时间(纳秒)
+        Map<String, Long> joined = new ConcurrentHashMap<>();
+        long[] waits = new long[total];
+        AtomicInteger started = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(total);
+        ConvertManager.setLauncher(mission -> executor.execute(() -> {
+            waits[started.getAndIncrement()] = System.nanoTime() - joined.get(mission.getConvertInfo().getSourceFilePath());
+            try {
+                Thread.sleep(convertMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ConvertManager.conversionEnded(mission.getLane(), mission.getMemoryReservation());
+            done.countDown();
+        }));
+
+        System.out.printf("任务数: %d, 线程数: %d, 转换耗时: %dms, 到达间隔: %dms, 负载: %.0f%%%n", total, threads,
+                convertMillis, intervalMillis, intervalMillis == 0 ? 100 : 100.0 * convertMillis / intervalMillis / threads);
+        for (int i = 0; i < total; i++) {
+            String source = "bench-" + i + ".docx";
+            joined.put(source, System.nanoTime());
+            ConvertManager.createMission(source, "bench/", 0);
+            if (intervalMillis > 0) {
+                Thread.sleep(intervalMillis);
+            }
+        }
+        done.await();
+        executor.shutdown();
+        orchestration.shutdown();
+
+        Arrays.sort(waits);
+        System.out.printf("从加入到开始: p50 %.3fms, p99 %.3fms, 最大 %.3fms%n",
+                percentile(waits, 0.50) / 1e6, percentile(waits, 0.99) / 1e6, waits[total - 1] / 1e6);
+    }
+
+    /**
+     * 创建线程池
+     *
+     * @param prefix  线程名前缀
+     * @param threads 线程数
+     * @return 已初始化的线程池
+     */
+    private static ThreadPoolTaskExecutor newExecutor(final String prefix,
+                                                      final int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix(prefix);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 计算分位数
+     *
+     * @param sorted  已排序的样本
+     * @param percent 分位(0~1)
+     * @return 分位数
+     */
+    private static long percentile(final long[] sorted,
+                                   final double percent) {
+        int index = (int) Math.ceil(percent * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
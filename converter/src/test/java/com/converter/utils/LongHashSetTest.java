@@ -0,0 +1,109 @@
+package com.converter.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongHashSetTest {
+    @Test
+    void addAndContains() {
+        LongHashSet set = new LongHashSet(4);
+        assertTrue(set.add(1L));
+        assertFalse(set.add(1L));
+        assertTrue(set.contains(1L));
+        assertFalse(set.contains(2L));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void resizeKeepsElements() {
+        LongHashSet set = new LongHashSet(4);
+        long before = set.memoryBytes();
+        for (long i = 1; i <= 10000; i++) {
+            assertTrue(set.add(i));
+        }
+        assertTrue(set.memoryBytes() > before);
+        assertEquals(10000, set.size());
+        for (long i = 1; i <= 10000; i++) {
+            assertTrue(set.contains(i));
+        }
+        assertFalse(set.contains(10001L));
+    }
+
+    @Test
+    void removeInsideProbeChain() {
+        // 表大小为16(掩码15), 这些值都落在同一个位置, 形成一条探测链
+        LongHashSet set = new LongHashSet(8);
+        long[] values = {16L, 32L, 48L, 64L};
+        for (long value : values) {
+            set.add(value);
+        }
+        assertTrue(set.remove(32L));
+        assertFalse(set.remove(32L));
+        assertFalse(set.contains(32L));
+        assertTrue(set.contains(16L));
+        assertTrue(set.contains(48L));
+        assertTrue(set.contains(64L));
+        assertEquals(3, set.size());
+        // 移除链头后其余元素仍能找到
+        assertTrue(set.remove(16L));
+        assertTrue(set.contains(48L));
+        assertTrue(set.contains(64L));
+    }
+
+    @Test
+    void removeWrapsAroundTableEnd() {
+        // 15和31落在最后一个位置, 探测链绕回表头
+        LongHashSet set = new LongHashSet(8);
+        set.add(15L);
+        set.add(31L);
+        set.add(47L);
+        set.add(1L);
+        assertTrue(set.remove(15L));
+        assertTrue(set.contains(31L));
+        assertTrue(set.contains(47L));
+        assertTrue(set.contains(1L));
+    }
+
+    @Test
+    void randomOperationsMatchHashSet() {
+        Random random = new Random(42);
+        LongHashSet set = new LongHashSet(16);
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 200000; i++) {
+            // 取值范围较小, 保证有大量重复和冲突
+            long value = random.nextInt(5000) + 1;
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(value), set.add(value));
+            } else {
+                assertEquals(expected.remove(value), set.remove(value));
+            }
+        }
+        assertEquals(expected.size(), set.size());
+        for (long value = 1; value <= 5000; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+    }
+
+    @Test
+    void clear() {
+        LongHashSet set = new LongHashSet();
+        set.add(LongHashSet.hash("a"));
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(LongHashSet.hash("a")));
+    }
+
+    @Test
+    void hashIsStableAndNonZero() {
+        assertEquals(LongHashSet.hash("D:\\test\\a.docx"), LongHashSet.hash("D:\\test\\a.docx"));
+        assertTrue(LongHashSet.hash("") != 0);
+        assertTrue(LongHashSet.hash("a") != LongHashSet.hash("b"));
+    }
+}